@@ -0,0 +1,197 @@
+import edu.princeton.cs.algs4.Digraph;
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.StdOut;
+
+import java.util.Arrays;
+
+/**
+ * The CSRDigraph class is an immutable digraph in compressed sparse row form: the adjacent
+ * vertices of every vertex are stored back to back in one int array, and a second array holds
+ * where each vertex's run starts.
+ * <p>
+ * Walking the edges of a vertex is then a scan over consecutive ints, with no iterator, no boxing
+ * and no pointer chasing, and the whole digraph takes 4 * (V + 1 + E) bytes.
+ */
+public class CSRDigraph {
+    private final int V;
+    private final int[] offsets;  // Edges of v are targets[offsets[v]..offsets[v + 1])
+    private final int[] targets;  // Heads of the edges, grouped by tail
+
+    /**
+     * Initializes a digraph from its arrays, which it takes ownership of.
+     *
+     * @param offsets the start of the edges of each vertex, followed by E
+     * @param targets the heads of the edges, grouped by tail
+     */
+    CSRDigraph(int[] offsets, int[] targets) {
+        this.V = offsets.length - 1;
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    /**
+     * Initializes a digraph with the same edges as an algs4 digraph, listed in the same order.
+     *
+     * @param G the digraph to copy
+     * @throws IllegalArgumentException if the digraph is null
+     */
+    public CSRDigraph(Digraph G) {
+        if (G == null) throw new IllegalArgumentException();
+        V = G.V();
+        offsets = new int[V + 1];
+        targets = new int[G.E()];
+        int e = 0;
+        for (int v = 0; v < V; v++) {
+            offsets[v] = e;
+            for (int w : G.adj(v)) targets[e++] = w;
+        }
+        offsets[V] = e;
+    }
+
+    /**
+     * Builds a digraph from a list of edges.
+     * <p>
+     * Like {@code Digraph.adj()}, the edges of each vertex are listed from the last added to the
+     * first added.
+     *
+     * @param V     the number of vertices
+     * @param tails the tail of each edge
+     * @param heads the head of each edge
+     * @param E     the number of edges in the arrays
+     * @return the digraph
+     * @throws IllegalArgumentException if any endpoint is not a vertex
+     */
+    static CSRDigraph fromEdges(int V, int[] tails, int[] heads, int E) {
+        int[] offsets = new int[V + 1];
+        for (int e = 0; e < E; e++) {
+            if (tails[e] < 0 || tails[e] >= V || heads[e] < 0 || heads[e] >= V)
+                throw new IllegalArgumentException();
+            offsets[tails[e] + 1]++;
+        }
+        for (int v = 0; v < V; v++) offsets[v + 1] += offsets[v];
+
+        // Fill each run from its end, so the last edge added comes first
+        int[] next = Arrays.copyOfRange(offsets, 1, V + 1);
+        int[] targets = new int[E];
+        for (int e = 0; e < E; e++) {
+            targets[--next[tails[e]]] = heads[e];
+        }
+        return new CSRDigraph(offsets, targets);
+    }
+
+    /**
+     * Returns the number of vertices.
+     *
+     * @return the number of vertices
+     */
+    public int V() {
+        return V;
+    }
+
+    /**
+     * Returns the number of edges.
+     *
+     * @return the number of edges
+     */
+    public int E() {
+        return targets.length;
+    }
+
+    /**
+     * Returns the number of edges pointing from vertex v.
+     *
+     * @param v the vertex
+     * @return the outdegree of vertex v
+     */
+    public int outdegree(int v) {
+        return offsets[v + 1] - offsets[v];
+    }
+
+    /**
+     * Returns the position of the first edge of vertex v. The edges of v are at the positions
+     * {@code offset(v)} to {@code offset(v + 1) - 1}.
+     *
+     * @param v the vertex, or V for the end of the last run
+     * @return the position of the first edge of v
+     */
+    int offset(int v) {
+        return offsets[v];
+    }
+
+    /**
+     * Returns the head of the edge at a position.
+     *
+     * @param i the position of the edge
+     * @return the vertex the edge points to
+     */
+    int target(int i) {
+        return targets[i];
+    }
+
+    /**
+     * Returns the reverse of the digraph.
+     *
+     * @return the digraph with every edge flipped
+     */
+    public CSRDigraph reverse() {
+        int[] reverseOffsets = new int[V + 1];
+        for (int w : targets) reverseOffsets[w + 1]++;
+        for (int v = 0; v < V; v++) reverseOffsets[v + 1] += reverseOffsets[v];
+
+        int[] next = Arrays.copyOf(reverseOffsets, V);
+        int[] reverseTargets = new int[targets.length];
+        for (int v = 0; v < V; v++) {
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                reverseTargets[next[targets[i]]++] = v;
+            }
+        }
+        return new CSRDigraph(reverseOffsets, reverseTargets);
+    }
+
+    /**
+     * Returns true if the digraph has no directed cycle, by repeatedly removing the vertices that
+     * no remaining edge points to.
+     *
+     * @return true if the digraph is a DAG, false otherwise
+     */
+    public boolean isDAG() {
+        int[] indegree = new int[V];
+        for (int w : targets) indegree[w]++;
+
+        int[] queue = new int[V];
+        int head = 0, tail = 0;
+        for (int v = 0; v < V; v++) {
+            if (indegree[v] == 0) queue[tail++] = v;
+        }
+        while (head < tail) {
+            int v = queue[head++];
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                if (--indegree[targets[i]] == 0) queue[tail++] = targets[i];
+            }
+        }
+        return tail == V;
+    }
+
+    /**
+     * Returns the number of bytes taken by the arrays of the digraph.
+     *
+     * @return the size of the digraph in bytes
+     */
+    public long bytes() {
+        return (long) Integer.BYTES * (offsets.length + targets.length);
+    }
+
+    /**
+     * Unit testing of this class.
+     *
+     * @param args command-line arguments
+     */
+    public static void main(String[] args) {
+        In in = new In(args[0]);
+        CSRDigraph G = new CSRDigraph(new Digraph(in));
+        StdOut.printf("V = %d, E = %d, %d bytes, DAG: %b\n", G.V(), G.E(), G.bytes(), G.isDAG());
+        for (int i = G.offset(0); i < G.offset(1); i++) {
+            StdOut.println("0->" + G.target(i));
+        }
+    }
+}
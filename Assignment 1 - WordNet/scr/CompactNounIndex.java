@@ -0,0 +1,336 @@
+import edu.princeton.cs.algs4.StdOut;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The CompactNounIndex class is an immutable {@link NounIndex} that packs the whole dictionary into
+ * a handful of flat arrays.
+ * <p>
+ * The characters of all nouns sit back to back in one char arena, and an open-addressing hash table
+ * of noun ids finds a noun by comparing it against its slice of the arena. The synsets of all nouns
+ * are stored back to back in one int array, and so are the noun ids of all synsets, from which the
+ * nouns of a synset are joined again when they are asked for. There is no per-noun key, list,
+ * entry or boxed Integer and no per-synset string, so the dictionary takes a fraction of the heap
+ * of hash maps of lists.
+ */
+class CompactNounIndex implements NounIndex {
+    private final char[] arena;           // Characters of every noun, back to back
+    private final int[] keyOffsets;       // Noun i is arena[keyOffsets[i]..keyOffsets[i + 1])
+    private final int[] table;            // Noun id + 1 in each slot; 0 if the slot is empty
+    private final int[] postingOffsets;   // Synsets of noun i are postings[postingOffsets[i]..]
+    private final IntBuffer postings;     // Synset ids of every noun, back to back
+    private final int[] synsetOffsets;    // Nouns of synset v are synsetNouns[synsetOffsets[v]..]
+    private final int[] synsetNouns;      // Noun ids of every synset, back to back
+    private final int count;              // Number of nouns
+
+    /**
+     * Initializes an index from the arrays assembled by a {@link Builder}.
+     *
+     * @param builder the builder
+     */
+    private CompactNounIndex(Builder builder) {
+        count = builder.count;
+        arena = Arrays.copyOf(builder.arena, builder.keyOffsets[count]);
+        keyOffsets = Arrays.copyOf(builder.keyOffsets, count + 1);
+        table = builder.table;
+
+        // Group the pairs by noun and by synset, keeping their order within each group
+        postingOffsets = new int[count + 1];
+        postings = IntBuffer.wrap(group(builder.pairNouns, builder.pairVertices, builder.pairs,
+                                        postingOffsets));
+        synsetOffsets = new int[builder.synsetCount + 1];
+        synsetNouns = group(builder.pairVertices, builder.pairNouns, builder.pairs, synsetOffsets);
+    }
+
+    /**
+     * Groups the values of (key, value) pairs by key with a counting sort, which keeps the order
+     * of the values of each key.
+     *
+     * @param keys    the key of each pair
+     * @param values  the value of each pair
+     * @param pairs   the number of pairs
+     * @param offsets filled so that the values of key k end up in [offsets[k]..offsets[k + 1])
+     * @return the values, grouped by key
+     */
+    private static int[] group(int[] keys, int[] values, int pairs, int[] offsets) {
+        for (int i = 0; i < pairs; i++) offsets[keys[i] + 1]++;
+        for (int k = 1; k < offsets.length; k++) offsets[k] += offsets[k - 1];
+        int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+        int[] grouped = new int[pairs];
+        for (int i = 0; i < pairs; i++) grouped[next[keys[i]]++] = values[i];
+        return grouped;
+    }
+
+    /**
+     * Builds a {@link CompactNounIndex} one synset at a time.
+     */
+    static class Builder {
+        private char[] arena = new char[1024];
+        private int[] keyOffsets = new int[64];
+        private int[] table = new int[128];
+        private int count;
+        private int[] pairNouns = new int[64], pairVertices = new int[64];  // (noun, synset) pairs
+        private int pairs;
+        private int synsetCount;
+
+        /**
+         * Adds a synset to the dictionary. The nouns are copied, so the sequence may be reused.
+         *
+         * @param vertex the synset id
+         * @param nouns  the nouns of the synset, separated by spaces
+         */
+        void add(int vertex, CharSequence nouns) {
+            int from = 0;
+            for (int i = 0; i <= nouns.length(); i++) {
+                if (i == nouns.length() || nouns.charAt(i) == ' ') {
+                    if (i > from) addPair(findOrAdd(nouns, from, i), vertex);
+                    from = i + 1;
+                }
+            }
+            synsetCount = Math.max(synsetCount, vertex + 1);
+        }
+
+        /**
+         * Returns the id of the noun in s[from..to), adding it to the arena if it is new.
+         *
+         * @param s    the characters holding the noun
+         * @param from the start of the noun
+         * @param to   the end of the noun
+         * @return the id of the noun
+         */
+        private int findOrAdd(CharSequence s, int from, int to) {
+            int hash = 0;
+            for (int i = from; i < to; i++) hash = 31 * hash + s.charAt(i);
+            int mask = table.length - 1;
+            for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+                int id = table[slot] - 1;
+                if (id == -1) break;
+                if (regionEquals(arena, keyOffsets[id], keyOffsets[id + 1], s, from, to)) return id;
+            }
+
+            // A new noun: copy it into the arena and give it the next id
+            int length = to - from;
+            int start = keyOffsets[count];
+            if (start + length > arena.length) {
+                arena = Arrays.copyOf(arena, Math.max(2 * arena.length, start + length));
+            }
+            for (int i = from; i < to; i++) arena[start + i - from] = s.charAt(i);
+            if (count + 2 > keyOffsets.length) {
+                keyOffsets = Arrays.copyOf(keyOffsets, 2 * (count + 2));
+            }
+            keyOffsets[count + 1] = start + length;
+            insert(table, hash, count);
+            count++;
+
+            // Keep the table at most half full
+            if (2 * count > table.length) {
+                int[] larger = new int[2 * table.length];
+                for (int id = 0; id < count; id++) {
+                    insert(larger, hash(arena, keyOffsets[id], keyOffsets[id + 1]), id);
+                }
+                table = larger;
+            }
+            return count - 1;
+        }
+
+        /**
+         * Records that a noun belongs to a synset.
+         *
+         * @param noun   the noun id
+         * @param vertex the synset id
+         */
+        private void addPair(int noun, int vertex) {
+            if (pairs == pairNouns.length) {
+                pairNouns = Arrays.copyOf(pairNouns, 2 * pairs);
+                pairVertices = Arrays.copyOf(pairVertices, 2 * pairs);
+            }
+            pairNouns[pairs] = noun;
+            pairVertices[pairs] = vertex;
+            pairs++;
+        }
+
+        /**
+         * Returns the index assembled so far.
+         *
+         * @return the index
+         */
+        CompactNounIndex build() {
+            return new CompactNounIndex(this);
+        }
+    }
+
+    /**
+     * Puts a noun id in the first empty slot of its probe sequence.
+     *
+     * @param table the hash table
+     * @param hash  the hash code of the noun
+     * @param id    the noun id
+     */
+    private static void insert(int[] table, int hash, int id) {
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        while (table[slot] != 0) slot = (slot + 1) & mask;
+        table[slot] = id + 1;
+    }
+
+    /**
+     * Returns the hash code of a slice of chars, computed like {@link String#hashCode}.
+     *
+     * @param chars the chars
+     * @param from  the start of the slice
+     * @param to    the end of the slice
+     * @return the hash code of the slice
+     */
+    private static int hash(char[] chars, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) hash = 31 * hash + chars[i];
+        return hash;
+    }
+
+    /**
+     * Mixes the high bits of a hash code into the low bits, which pick the slot.
+     *
+     * @param hash the hash code
+     * @return the spread hash code
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Returns true if a slice of chars holds the same characters as a slice of a sequence.
+     *
+     * @param chars the chars
+     * @param start the start of the slice of chars
+     * @param end   the end of the slice of chars
+     * @param s     the sequence
+     * @param from  the start of the slice of the sequence
+     * @param to    the end of the slice of the sequence
+     * @return true if both slices hold the same characters
+     */
+    private static boolean regionEquals(char[] chars, int start, int end,
+                                        CharSequence s, int from, int to) {
+        if (end - start != to - from) return false;
+        for (int i = start, j = from; i < end; i++, j++) {
+            if (chars[i] != s.charAt(j)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the id of a noun.
+     *
+     * @param word the word
+     * @return the id of the noun; -1 if the word is not a noun
+     */
+    private int find(String word) {
+        int mask = table.length - 1;
+        for (int slot = spread(word.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (id == -1) return -1;
+            if (regionEquals(arena, keyOffsets[id], keyOffsets[id + 1], word, 0, word.length())) {
+                return id;
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(String word) {
+        return find(word) != -1;
+    }
+
+    @Override
+    public List<Integer> vertices(String noun) {
+        int id = find(noun);
+        if (id == -1) return null;
+        return new Postings(postings, postingOffsets[id], postingOffsets[id + 1]);
+    }
+
+    @Override
+    public String synset(int vertex) {
+        if (vertex < 0 || vertex >= synsetCount()) return null;
+        int from = synsetOffsets[vertex], to = synsetOffsets[vertex + 1];
+        StringBuilder nouns = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            int id = synsetNouns[i];
+            if (i > from) nouns.append(' ');
+            nouns.append(arena, keyOffsets[id], keyOffsets[id + 1] - keyOffsets[id]);
+        }
+        return nouns.toString();
+    }
+
+    @Override
+    public int synsetCount() {
+        return synsetOffsets.length - 1;
+    }
+
+    @Override
+    public Iterable<String> nouns() {
+        return () -> new Iterator<String>() {
+            private int id = 0;
+
+            @Override
+            public boolean hasNext() {
+                return id < count;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                int start = keyOffsets[id];
+                int end = keyOffsets[++id];
+                return new String(arena, start, end - start);
+            }
+        };
+    }
+
+    /**
+     * Returns the number of bytes taken by the arrays of the index.
+     *
+     * @return the size of the index in bytes
+     */
+    long bytes() {
+        return (long) Character.BYTES * arena.length
+                + (long) Integer.BYTES * (keyOffsets.length + table.length
+                + postingOffsets.length + postings.capacity()
+                + synsetOffsets.length + synsetNouns.length);
+    }
+
+    /**
+     * Unit testing of this class: compares the heap taken by this index with the heap taken by a
+     * {@link HashNounIndex} of the same synsets file, both with the nouns of every synset.
+     *
+     * @param args the synsets file and the hypernyms file
+     */
+    public static void main(String[] args) {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        NounIndex compact = new WordNetParser(args[0], args[1]).dictionary();
+        runtime.gc();
+        long compactBytes = runtime.totalMemory() - runtime.freeMemory() - before;
+
+        // synset() joins a new string on every call, so the hash maps share nothing with compact
+        HashNounIndex hashed = new HashNounIndex();
+        for (int v = 0; v < compact.synsetCount(); v++) hashed.add(v, compact.synset(v));
+        runtime.gc();
+        long hashedBytes = runtime.totalMemory() - runtime.freeMemory() - before - compactBytes;
+
+        StdOut.printf("compact: %d KB, hash maps: %d KB (synset strings included in both)\n",
+                      compactBytes / 1024, hashedBytes / 1024);
+        int nouns = 0;
+        for (String noun : compact.nouns()) {
+            if (!compact.vertices(noun).equals(hashed.vertices(noun)))
+                throw new IllegalStateException(noun);
+            nouns++;
+        }
+        for (int v = 0; v < compact.synsetCount(); v++) {
+            if (!compact.synset(v).equals(hashed.synset(v))) throw new IllegalStateException();
+        }
+        StdOut.println("checked " + nouns + " nouns");
+    }
+}
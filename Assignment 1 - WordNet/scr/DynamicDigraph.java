@@ -0,0 +1,180 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The DynamicDigraph class is a digraph that can grow while it is being searched: an immutable
+ * {@link CSRDigraph} holding the digraph as it was built, plus the vertices and edges added since.
+ * <p>
+ * The edges added to a vertex are kept in a small array that is replaced, never modified, on each
+ * addition, and the arrays are published through an {@link AtomicReferenceArray}. A search running
+ * during an update therefore sees each vertex either before or after the update, never half of
+ * it, and updates cost in proportion to the edges they add. Updates must not run concurrently with
+ * each other.
+ */
+class DynamicDigraph {
+    private final CSRDigraph base;       // The digraph as it was built
+    private volatile CSRDigraph reverse; // Reverse of the base digraph; null until first needed
+    private volatile int V, E;
+    private volatile AtomicReferenceArray<int[]> added;        // Edges added from each vertex
+    private volatile AtomicReferenceArray<int[]> addedReverse; // Edges added into each vertex
+
+    /**
+     * Initializes a digraph with the vertices and edges of an immutable digraph.
+     *
+     * @param base the immutable digraph
+     */
+    DynamicDigraph(CSRDigraph base) {
+        this.base = base;
+        V = base.V();
+        E = base.E();
+    }
+
+    /**
+     * Returns the number of vertices.
+     *
+     * @return the number of vertices
+     */
+    int V() {
+        return V;
+    }
+
+    /**
+     * Returns the number of edges.
+     *
+     * @return the number of edges
+     */
+    int E() {
+        return E;
+    }
+
+    /**
+     * Returns the digraph as it was built, without the vertices and edges added since.
+     *
+     * @return the base digraph
+     */
+    CSRDigraph base() {
+        return base;
+    }
+
+    /**
+     * Returns the reverse of the base digraph, building it on first use.
+     *
+     * @return the reverse of the base digraph
+     */
+    CSRDigraph baseReverse() {
+        CSRDigraph r = reverse;
+        if (r == null) {
+            synchronized (this) {
+                r = reverse;
+                if (r == null) reverse = r = base.reverse();
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Returns the arrays of edges added from each vertex, for a search to read its adjacency from.
+     *
+     * @return the added edges of each vertex; null if no edge was ever added
+     */
+    AtomicReferenceArray<int[]> added() {
+        return added;
+    }
+
+    /**
+     * Returns the arrays of edges added into each vertex, for a search of the reverse digraph.
+     *
+     * @return the added reverse edges of each vertex; null if no edge was ever added
+     */
+    AtomicReferenceArray<int[]> addedReverse() {
+        return addedReverse;
+    }
+
+    /**
+     * Adds a vertex with no edges.
+     *
+     * @return the new vertex
+     */
+    int addVertex() {
+        ensureCapacity(V + 1);
+        V++;
+        return V - 1;
+    }
+
+    /**
+     * Adds the edge v-&gt;w.
+     *
+     * @param v the tail of the edge
+     * @param w the head of the edge
+     */
+    void addEdge(int v, int w) {
+        ensureCapacity(V);
+        append(added, v, w);
+        append(addedReverse, w, v);
+        E++;
+    }
+
+    /**
+     * Replaces the array of added edges of a vertex with one more edge.
+     *
+     * @param edges the added edges of every vertex
+     * @param v     the vertex
+     * @param w     the other endpoint of the new edge
+     */
+    private static void append(AtomicReferenceArray<int[]> edges, int v, int w) {
+        int[] old = edges.get(v);
+        int[] grown = old == null ? new int[1] : Arrays.copyOf(old, old.length + 1);
+        grown[grown.length - 1] = w;
+        edges.set(v, grown);
+    }
+
+    /**
+     * Makes the arrays of added edges large enough for the given number of vertices, doubling
+     * them when they are not.
+     *
+     * @param capacity the number of vertices
+     */
+    private void ensureCapacity(int capacity) {
+        if (added != null && added.length() >= capacity) return;
+        int length = Math.max(capacity, added == null ? capacity : 2 * added.length());
+        AtomicReferenceArray<int[]> grown = new AtomicReferenceArray<>(length);
+        AtomicReferenceArray<int[]> grownReverse = new AtomicReferenceArray<>(length);
+        if (added != null) {
+            for (int v = 0; v < added.length(); v++) {
+                grown.set(v, added.get(v));
+                grownReverse.set(v, addedReverse.get(v));
+            }
+        }
+        addedReverse = grownReverse;
+        added = grown;
+    }
+
+    /**
+     * Returns an immutable copy of the whole digraph, base and additions.
+     *
+     * @return the digraph in compressed sparse row form
+     */
+    CSRDigraph toCSR() {
+        AtomicReferenceArray<int[]> more = added;
+        if (more == null && V == base.V()) return base;
+
+        int n = V;
+        int[] offsets = new int[n + 1];
+        int[] targets = new int[E];
+        int e = 0;
+        for (int v = 0; v < n; v++) {
+            offsets[v] = e;
+            if (v < base.V()) {
+                for (int i = base.offset(v); i < base.offset(v + 1); i++) {
+                    targets[e++] = base.target(i);
+                }
+            }
+            int[] extra = more == null ? null : more.get(v);
+            if (extra != null) {
+                for (int w : extra) targets[e++] = w;
+            }
+        }
+        offsets[n] = e;
+        return new CSRDigraph(offsets, targets);
+    }
+}
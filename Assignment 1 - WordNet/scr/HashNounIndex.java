@@ -0,0 +1,51 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The HashNounIndex class is a {@link NounIndex} backed by hash maps, built one synset at a time.
+ */
+class HashNounIndex implements NounIndex {
+    // Maps to store the associations between nouns and vertices
+    private final Map<String, List<Integer>> nounToVertex = new HashMap<>();
+    private final Map<Integer, String> vertexToNoun = new HashMap<>();
+
+    /**
+     * Adds a synset to the dictionary.
+     *
+     * @param vertex the synset id
+     * @param nouns  the nouns of the synset, separated by spaces
+     */
+    void add(int vertex, String nouns) {
+        for (String noun : nouns.split(" ")) {
+            nounToVertex.computeIfAbsent(noun, ignored -> new ArrayList<>()).add(vertex);
+        }
+        vertexToNoun.put(vertex, nouns);
+    }
+
+    @Override
+    public boolean contains(String word) {
+        return nounToVertex.containsKey(word);
+    }
+
+    @Override
+    public List<Integer> vertices(String noun) {
+        return nounToVertex.get(noun);
+    }
+
+    @Override
+    public String synset(int vertex) {
+        return vertexToNoun.get(vertex);
+    }
+
+    @Override
+    public int synsetCount() {
+        return vertexToNoun.size();
+    }
+
+    @Override
+    public Iterable<String> nouns() {
+        return nounToVertex.keySet();
+    }
+}
@@ -0,0 +1,146 @@
+import edu.princeton.cs.algs4.StdOut;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Histogram class is a lock-free histogram of non-negative long values, such as latencies in
+ * nanoseconds or numbers of vertices.
+ * <p>
+ * Values below 8 get a bucket each, and every power of two above is split into 8 buckets, so a
+ * percentile is exact to within 12.5% whatever the scale of the values. Each bucket is a
+ * {@link LongAdder}, so many threads can record at once without contending on one counter.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 3;                 // Buckets per power of two: 2^SUB_BITS
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Initializes an empty histogram.
+     */
+    public Histogram() {
+        for (int i = 0; i < BUCKETS; i++) counts[i] = new LongAdder();
+    }
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts[bucket(value)].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Returns the bucket of a value.
+     *
+     * @param value the non-negative value
+     * @return the bucket of the value
+     */
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the largest value that falls in a bucket.
+     *
+     * @param bucket the bucket
+     * @return the upper bound of the bucket
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return the number of values
+     */
+    public long count() {
+        long count = 0;
+        for (LongAdder c : counts) count += c.sum();
+        return count;
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return the mean; 0 if no value was recorded
+     */
+    public double mean() {
+        long count = count();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return the largest value; 0 if no value was recorded
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns a value that the given fraction of the recorded values do not exceed, rounded up to
+     * the end of its bucket.
+     *
+     * @param fraction the fraction, such as 0.99 for the 99th percentile
+     * @return the percentile; 0 if no value was recorded
+     * @throws IllegalArgumentException if the fraction is not between 0 and 1
+     */
+    public long percentile(double fraction) {
+        if (!(fraction >= 0 && fraction <= 1)) throw new IllegalArgumentException();
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+            count += snapshot[i];
+        }
+        if (count == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(upperBound(i), max());
+        }
+        return max();
+    }
+
+    /**
+     * Removes every recorded value. Values recorded meanwhile may or may not be kept.
+     */
+    public void reset() {
+        for (LongAdder c : counts) c.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * Unit testing of this class.
+     *
+     * @param args command-line arguments
+     */
+    public static void main(String[] args) {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) histogram.record(i);
+        StdOut.printf("count = %d, mean = %.1f, p50 = %d, p99 = %d, max = %d\n",
+                      histogram.count(), histogram.mean(), histogram.percentile(0.5),
+                      histogram.percentile(0.99), histogram.max());
+    }
+}
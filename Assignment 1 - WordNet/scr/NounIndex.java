@@ -0,0 +1,48 @@
+import java.util.List;
+
+/**
+ * The NounIndex interface is the dictionary behind a {@link WordNet}: it maps each noun to the
+ * synsets that contain it, and each synset to its nouns.
+ * <p>
+ * Implementations are read-only once built, so they can be shared by concurrent queries. The
+ * exception is {@link OverlayNounIndex}, which grows but can be read while it does.
+ */
+interface NounIndex {
+    /**
+     * Returns true if the word is a noun of the dictionary.
+     *
+     * @param word the word
+     * @return true if the word is a noun, false otherwise
+     */
+    boolean contains(String word);
+
+    /**
+     * Returns the synsets that contain a noun.
+     *
+     * @param noun the noun
+     * @return the synset ids of the noun; null if the word is not a noun
+     */
+    List<Integer> vertices(String noun);
+
+    /**
+     * Returns the nouns of a synset, separated by spaces.
+     *
+     * @param vertex the synset id
+     * @return the nouns of the synset; null if there is no such synset
+     */
+    String synset(int vertex);
+
+    /**
+     * Returns the number of synsets, which are numbered from 0.
+     *
+     * @return the number of synsets
+     */
+    int synsetCount();
+
+    /**
+     * Returns all the nouns of the dictionary.
+     *
+     * @return an iterable of all the nouns
+     */
+    Iterable<String> nouns();
+}
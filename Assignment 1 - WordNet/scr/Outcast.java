@@ -1,12 +1,17 @@
 import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdOut;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * The Outcast class identifies the outcast in an array of WordNet nouns.
  * An outcast is defined as the noun that is the least related to the others.
  */
 public class Outcast {
     private final WordNet wordnet;
+    private final boolean parallel;  // True to split the distance sums across all cores
 
     /**
      * Constructs an Outcast object using the provided WordNet object.
@@ -14,7 +19,19 @@ public class Outcast {
      * @param wordnet the WordNet object to be used for outcast determination
      */
     public Outcast(WordNet wordnet) {
+        this(wordnet, false);
+    }
+
+    /**
+     * Constructs an Outcast object using the provided WordNet object, optionally computing the
+     * distances of each noun to the others in parallel.
+     *
+     * @param wordnet  the WordNet object to be used for outcast determination
+     * @param parallel true to spread the distance sums of each array across all cores
+     */
+    public Outcast(WordNet wordnet, boolean parallel) {
         this.wordnet = wordnet;
+        this.parallel = parallel;
     }
 
     /**
@@ -25,20 +42,19 @@ public class Outcast {
      * @return the outcast noun
      */
     public String outcast(String[] nouns) {
+        int[][] distances = wordnet.distanceMatrix(nouns, parallel);
         String outcast = nouns[0];
         int maxDist = -1;
 
-        for (String nounA : nouns) {
+        for (int a = 0; a < nouns.length; a++) {
             int dist = 0;
-            for (String nounB : nouns) {
-                if (!nounA.equals(nounB)) {
-                    dist = dist + wordnet.distance(nounA, nounB);
-                }
+            for (int b = 0; b < nouns.length; b++) {
+                dist = dist + distances[a][b];
             }
 
             if (dist > maxDist) {
                 maxDist = dist;
-                outcast = nounA;
+                outcast = nouns[a];
             }
         }
         return outcast;
@@ -48,16 +64,36 @@ public class Outcast {
      * Reads input files and prints the outcast for each file.
      * The first two command-line arguments are the synsets and hypernyms files for WordNet.
      * The remaining arguments are files containing arrays of WordNet nouns.
+     * <p>
+     * With {@code -parallel} as the first argument, the files are processed concurrently on the
+     * common fork-join pool and the distance sums of each file are split across it as well, all
+     * against one shared WordNet. The outcasts are still printed in the order of the files.
      *
      * @param args the command-line arguments
      */
     public static void main(String[] args) {
-        WordNet wordnet = new WordNet(args[0], args[1]);
-        Outcast outcast = new Outcast(wordnet);
-        for (int t = 2; t < args.length; t++) {
-            In in = new In(args[t]);
-            String[] nouns = in.readAllStrings();
-            StdOut.println(args[t] + ": " + outcast.outcast(nouns));
+        boolean parallel = args.length > 0 && args[0].equals("-parallel");
+        int first = parallel ? 1 : 0;
+        WordNet wordnet = new WordNet(args[first], args[first + 1]);
+        Outcast outcast = new Outcast(wordnet, parallel);
+
+        if (!parallel) {
+            for (int t = first + 2; t < args.length; t++) {
+                In in = new In(args[t]);
+                String[] nouns = in.readAllStrings();
+                StdOut.println(args[t] + ": " + outcast.outcast(nouns));
+            }
+            return;
+        }
+
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int t = first + 2; t < args.length; t++) {
+            String file = args[t];
+            results.add(CompletableFuture.supplyAsync(
+                    () -> outcast.outcast(new In(file).readAllStrings())));
+        }
+        for (int t = first + 2; t < args.length; t++) {
+            StdOut.println(args[t] + ": " + results.get(t - first - 2).join());
         }
     }
-}
\ No newline at end of file
+}
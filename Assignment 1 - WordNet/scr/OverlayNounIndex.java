@@ -0,0 +1,108 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The OverlayNounIndex class is a {@link NounIndex} that adds synsets on top of a read-only one,
+ * such as a {@link CompactNounIndex} or a memory-mapped {@link WordNetSnapshot}.
+ * <p>
+ * Only the nouns of the added synsets are stored, in concurrent hash maps, each with the complete
+ * and immutable list of its synsets, so adding a synset costs in proportion to its nouns and the
+ * index can be read while it grows. Synsets must be added one at a time.
+ */
+class OverlayNounIndex implements NounIndex {
+    private final NounIndex base;
+    private final ConcurrentHashMap<String, List<Integer>> nounToVertex = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, String> vertexToNoun = new ConcurrentHashMap<>();
+    private volatile int synsetCount;
+
+    /**
+     * Initializes an index with the synsets of a read-only one.
+     *
+     * @param base the read-only index
+     */
+    OverlayNounIndex(NounIndex base) {
+        this.base = base;
+        synsetCount = base.synsetCount();
+    }
+
+    /**
+     * Adds a synset to the dictionary.
+     *
+     * @param vertex the synset id, which must be the number of synsets so far
+     * @param nouns  the nouns of the synset, separated by spaces
+     */
+    void add(int vertex, String nouns) {
+        vertexToNoun.put(vertex, nouns);
+        for (String noun : nouns.split(" ")) {
+            if (noun.isEmpty()) continue;
+            List<Integer> old = vertices(noun);
+            List<Integer> updated = new ArrayList<>(old == null ? 1 : old.size() + 1);
+            if (old != null) updated.addAll(old);
+            updated.add(vertex);
+            nounToVertex.put(noun, Collections.unmodifiableList(updated));
+        }
+        synsetCount = vertex + 1;
+    }
+
+    @Override
+    public boolean contains(String word) {
+        return nounToVertex.containsKey(word) || base.contains(word);
+    }
+
+    @Override
+    public List<Integer> vertices(String noun) {
+        List<Integer> added = nounToVertex.get(noun);
+        return added != null ? added : base.vertices(noun);
+    }
+
+    @Override
+    public String synset(int vertex) {
+        if (vertex < base.synsetCount()) return base.synset(vertex);
+        return vertexToNoun.get(vertex);
+    }
+
+    @Override
+    public int synsetCount() {
+        return synsetCount;
+    }
+
+    @Override
+    public Iterable<String> nouns() {
+        return () -> new Iterator<String>() {
+            private final Iterator<String> nouns = base.nouns().iterator();
+            private final Iterator<String> added = nounToVertex.keySet().iterator();
+            private String next = advance();
+
+            /**
+             * Returns the next noun of the base index, then the added nouns it does not have.
+             *
+             * @return the next noun; null if there is none
+             */
+            private String advance() {
+                if (nouns.hasNext()) return nouns.next();
+                while (added.hasNext()) {
+                    String noun = added.next();
+                    if (!base.contains(noun)) return noun;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (next == null) throw new NoSuchElementException();
+                String noun = next;
+                next = advance();
+                return noun;
+            }
+        };
+    }
+}
@@ -0,0 +1,36 @@
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * The Postings class is a read-only view of the synsets of one noun, read straight from a section
+ * of synset ids shared by all the nouns of a dictionary.
+ */
+class Postings extends AbstractList<Integer> implements RandomAccess {
+    private final IntBuffer postings;
+    private final int start, end;
+
+    /**
+     * Initializes the view of postings[start..end).
+     *
+     * @param postings the synset ids of every noun, back to back
+     * @param start    the first posting
+     * @param end      the posting just past the last one
+     */
+    Postings(IntBuffer postings, int start, int end) {
+        this.postings = postings;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public Integer get(int i) {
+        if (i < 0 || i >= end - start) throw new IndexOutOfBoundsException();
+        return postings.get(start + i);
+    }
+
+    @Override
+    public int size() {
+        return end - start;
+    }
+}
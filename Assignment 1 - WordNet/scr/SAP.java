@@ -2,24 +2,32 @@ import edu.princeton.cs.algs4.Digraph;
 import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdOut;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Queue;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
 
 /**
  * The SAP class provides methods to find the shortest ancestral path
  * between two vertices in a digraph.
+ * <p>
+ * The digraph is kept as an immutable {@link CSRDigraph}, so the searches scan flat int arrays,
+ * plus the vertices and edges added since in a {@link DynamicDigraph}.
+ * <p>
+ * All the scratch state of a query lives in a per-thread {@link Search}, so many threads can call
+ * {@code length} and {@code ancestor} on the same instance at once, even while another thread adds
+ * vertices and edges: a query running during an update sees the digraph either before or after
+ * it, whether a search or an installed {@link SAPIndex} answers it. Installing an index only
+ * changes how the answers are found, never the answers themselves, and an installed index is kept
+ * up to date by the updates.
+ * <p>
+ * With {@link SAPMetrics} installed, every query records its time and the work of its search.
  */
 public class SAP {
-    private final Digraph G;
-    private final Queue<Integer> queueV, queueW;
-    private final Map<Integer, Integer> distToV, distToW;
-    private final Set<Integer> visitedV, visitedW;
-    private int length, sca;
+    private final DynamicDigraph G;
+    private final ThreadLocal<Search> search;  // Scratch state of the queries run by each thread
+    private volatile SAPIndex index;           // Label index answering the queries; null if none
+    private volatile SAPMetrics metrics;       // Where queries record their work; null if off
 
     /**
      * Constructor that takes a digraph (not necessarily a DAG).
@@ -28,16 +36,17 @@ public class SAP {
      * @throws IllegalArgumentException if the digraph is null
      */
     public SAP(Digraph G) {
-        if (G == null) throw new IllegalArgumentException();
-        this.G = new Digraph(G);
+        this(new CSRDigraph(G));
+    }
 
-        // Initialize data structures for bidirectional BFS
-        queueV = new LinkedList<>();
-        queueW = new LinkedList<>();
-        distToV = new HashMap<>();
-        distToW = new HashMap<>();
-        visitedV = new HashSet<>();
-        visitedW = new HashSet<>();
+    /**
+     * Initializes a SAP over an immutable digraph, which it shares instead of copying.
+     *
+     * @param G the digraph
+     */
+    SAP(CSRDigraph G) {
+        this.G = new DynamicDigraph(G);
+        search = ThreadLocal.withInitial(Search::new);
     }
 
     /**
@@ -48,9 +57,7 @@ public class SAP {
      * @return the length of the shortest ancestral path; -1 if no such path
      */
     public int length(int v, int w) {
-        validate(v, w);
-        sca(v, w);
-        return length;
+        return length(query(v, w));
     }
 
     /**
@@ -61,9 +68,7 @@ public class SAP {
      * @return the common ancestor; -1 if no such path
      */
     public int ancestor(int v, int w) {
-        validate(v, w);
-        sca(v, w);
-        return sca;
+        return ancestor(query(v, w));
     }
 
     /**
@@ -75,9 +80,7 @@ public class SAP {
      * @return the length of the shortest ancestral path; -1 if no such path
      */
     public int length(Iterable<Integer> v, Iterable<Integer> w) {
-        validate(v, w);
-        sca(v, w);
-        return length;
+        return length(query(v, w));
     }
 
     /**
@@ -89,9 +92,415 @@ public class SAP {
      * @return the common ancestor; -1 if no such path
      */
     public int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
+        return ancestor(query(v, w));
+    }
+
+    /**
+     * Runs one query between two vertices and returns both of its answers packed in a long, which
+     * {@link #length(long)} and {@link #ancestor(long)} unpack. The query is answered by the label
+     * index if there is one, and by a bidirectional BFS otherwise.
+     *
+     * @param v the first vertex
+     * @param w the second vertex
+     * @return the length of the shortest ancestral path in the high 32 bits and the common
+     * ancestor in the low 32 bits
+     */
+    long query(int v, int w) {
         validate(v, w);
-        sca(v, w);
-        return sca;
+        SAPMetrics m = metrics;
+        long start = m == null ? 0 : System.nanoTime();
+        SAPIndex labels = index;
+        long result;
+        Search s = null;
+        if (labels != null) result = labels.query(v, w);
+        else {
+            s = search();
+            s.sca(v, w);
+            result = pack(s.length, s.sca);
+        }
+        if (m != null) record(m, start, s);
+        return result;
+    }
+
+    /**
+     * Runs one query between two iterables of vertices and returns both of its answers packed in a
+     * long, like {@link #query(int, int)}.
+     *
+     * @param v the first iterable of vertices
+     * @param w the second iterable of vertices
+     * @return the length of the shortest ancestral path in the high 32 bits and the common
+     * ancestor in the low 32 bits
+     */
+    long query(Iterable<Integer> v, Iterable<Integer> w) {
+        validate(v, w);
+        SAPMetrics m = metrics;
+        long start = m == null ? 0 : System.nanoTime();
+        SAPIndex labels = index;
+        long result;
+        Search s = null;
+        if (labels != null) result = labels.query(v, w);
+        else {
+            s = search();
+            s.sca(v, w);
+            result = pack(s.length, s.sca);
+        }
+        if (m != null) record(m, start, s);
+        return result;
+    }
+
+    /**
+     * Records the time of a query and the work of its search.
+     *
+     * @param m     the metrics
+     * @param start the time the query started, from {@link System#nanoTime}
+     * @param s     the scratch state of the search; null if the index answered the query
+     */
+    private static void record(SAPMetrics m, long start, Search s) {
+        long nanos = System.nanoTime() - start;
+        if (s == null) m.recordSearch(nanos, 0, 0, 0);
+        else m.recordSearch(nanos, s.dequeued, s.scanned, s.maxFrontier);
+    }
+
+    /**
+     * Returns the lengths of the shortest ancestral paths between an iterable of vertices and each
+     * of many others, for instance to rank candidates by their distance to one noun.
+     * <p>
+     * The ancestors of v are found once, and then up to 64 of the other iterables are searched
+     * together: each vertex carries a 64-bit mask of the iterables that reached it, so one pass
+     * over the digraph replaces 64 bidirectional searches.
+     *
+     * @param v    the iterable of vertices
+     * @param sets the other iterables of vertices
+     * @return an array whose entry [i] is the length of the shortest ancestral path between v and
+     * sets i; -1 if no such path
+     * @throws IllegalArgumentException if any of the arguments are null or any of the iterables
+     *                                  are null or contain invalid vertices
+     */
+    public int[] lengths(Iterable<Integer> v, List<? extends Iterable<Integer>> sets) {
+        long[] results = queryEach(v, sets);
+        int[] lengths = new int[results.length];
+        for (int i = 0; i < results.length; i++) lengths[i] = length(results[i]);
+        return lengths;
+    }
+
+    /**
+     * Returns a common ancestor that participates in the shortest ancestral path between an
+     * iterable of vertices and each of many others, searched like {@link #lengths}.
+     *
+     * @param v    the iterable of vertices
+     * @param sets the other iterables of vertices
+     * @return an array whose entry [i] is the common ancestor of v and sets i; -1 if no such path
+     * @throws IllegalArgumentException if any of the arguments are null or any of the iterables
+     *                                  are null or contain invalid vertices
+     */
+    public int[] ancestors(Iterable<Integer> v, List<? extends Iterable<Integer>> sets) {
+        long[] results = queryEach(v, sets);
+        int[] ancestors = new int[results.length];
+        for (int i = 0; i < results.length; i++) ancestors[i] = ancestor(results[i]);
+        return ancestors;
+    }
+
+    /**
+     * Runs the queries between an iterable of vertices and each of many others, and returns their
+     * answers packed like {@link #query(int, int)}. The queries are answered by the label index if
+     * there is one, and by bit-parallel searches of 64 iterables at a time otherwise.
+     *
+     * @param v    the iterable of vertices
+     * @param sets the other iterables of vertices
+     * @return the packed answer of the query between v and each of the other iterables
+     */
+    long[] queryEach(Iterable<Integer> v, List<? extends Iterable<Integer>> sets) {
+        validate(v);
+        if (sets == null) throw new IllegalArgumentException();
+        for (Iterable<Integer> set : sets) validate(set);
+
+        SAPMetrics m = metrics;
+        long start = m == null ? 0 : System.nanoTime();
+        long[] results = new long[sets.size()];
+        SAPIndex labels = index;
+        if (labels != null) {
+            for (int i = 0; i < results.length; i++) results[i] = labels.query(v, sets.get(i));
+            if (m != null) record(m, start, null);
+            return results;
+        }
+        Search s = search();
+        Ancestors ancestors = s.ancestors(v);
+        int dequeued = 0, scanned = 0, maxFrontier = 0;
+        for (int from = 0; from < results.length; from += Long.SIZE) {
+            s.multiSource(ancestors, sets, from, Math.min(from + Long.SIZE, results.length),
+                          results);
+            dequeued += s.dequeued;
+            scanned += s.scanned;
+            maxFrontier = Math.max(maxFrontier, s.maxFrontier);
+        }
+        if (m != null) m.recordSearch(System.nanoTime() - start, dequeued, scanned, maxFrontier);
+        return results;
+    }
+
+    /**
+     * Returns the lengths of the shortest ancestral paths between every two of the given iterables
+     * of vertices.
+     * <p>
+     * Instead of running a bidirectional BFS per pair, this finds the ancestors of each iterable
+     * once and then combines every two ancestor sets, so it is much cheaper than calling
+     * {@link #length(Iterable, Iterable)} for each pair.
+     *
+     * @param sets the iterables of vertices
+     * @return a symmetric matrix whose entry [i][j] is the length of the shortest ancestral path
+     * between sets i and j; -1 if no such path
+     * @throws IllegalArgumentException if the list is null or any of the iterables are null or
+     *                                  contain invalid vertices
+     */
+    public int[][] lengthMatrix(List<? extends Iterable<Integer>> sets) {
+        return lengthMatrix(sets, false);
+    }
+
+    /**
+     * Returns the lengths of the shortest ancestral paths between every two of the given iterables
+     * of vertices, optionally spreading the work across the common fork-join pool.
+     * <p>
+     * In parallel mode both the ancestor searches and the rows of the matrix are split across
+     * the pool, each worker using its own scratch state. The result is the same in both modes.
+     *
+     * @param sets     the iterables of vertices
+     * @param parallel true to compute the matrix in parallel
+     * @return a symmetric matrix whose entry [i][j] is the length of the shortest ancestral path
+     * between sets i and j; -1 if no such path
+     * @throws IllegalArgumentException if the list is null or any of the iterables are null or
+     *                                  contain invalid vertices
+     */
+    public int[][] lengthMatrix(List<? extends Iterable<Integer>> sets, boolean parallel) {
+        if (sets == null) throw new IllegalArgumentException();
+        for (Iterable<Integer> set : sets) validate(set);
+
+        int n = sets.size();
+        Ancestors[] ancestors = new Ancestors[n];
+        int[][] lengths = new int[n][n];
+        range(n, parallel).forEach(i -> ancestors[i] = search().ancestors(sets.get(i)));
+        range(n, parallel).forEach(i -> search().fillRow(ancestors, i, lengths));
+        return lengths;
+    }
+
+    /**
+     * Returns the scratch state of the calling thread, replacing it with a larger one if vertices
+     * were added since it was created.
+     *
+     * @return the scratch state of the calling thread
+     */
+    private Search search() {
+        Search s = search.get();
+        if (s.capacity < G.V()) {
+            s = new Search();
+            search.set(s);
+        }
+        return s;
+    }
+
+    /**
+     * Returns the stream of integers from 0 to n - 1, in parallel if asked to.
+     *
+     * @param n        the number of integers
+     * @param parallel true for a parallel stream
+     * @return the stream of integers
+     */
+    private static IntStream range(int n, boolean parallel) {
+        IntStream range = IntStream.range(0, n);
+        return parallel ? range.parallel() : range;
+    }
+
+    /**
+     * Packs the answers of a query in a long.
+     *
+     * @param length the length of the shortest ancestral path
+     * @param sca    the common ancestor
+     * @return the packed answers
+     */
+    static long pack(int length, int sca) {
+        return ((long) length << 32) | (sca & 0xffffffffL);
+    }
+
+    /**
+     * Returns the length of the shortest ancestral path packed by {@link #query}.
+     *
+     * @param result the packed result of a query
+     * @return the length of the shortest ancestral path; -1 if no such path
+     */
+    static int length(long result) {
+        return (int) (result >> 32);
+    }
+
+    /**
+     * Returns the common ancestor packed by {@link #query}.
+     *
+     * @param result the packed result of a query
+     * @return the common ancestor; -1 if no such path
+     */
+    static int ancestor(long result) {
+        return (int) result;
+    }
+
+    /**
+     * Builds a label index of the digraph and answers every later query from it.
+     *
+     * @return the new index
+     */
+    public synchronized SAPIndex buildIndex() {
+        SAPIndex labels = SAPIndex.build(G.toCSR());
+        index = labels;
+        return labels;
+    }
+
+    /**
+     * Answers every later query from the given label index, or goes back to searching the digraph.
+     *
+     * @param labels the index, such as one loaded from a file; null to search the digraph
+     * @throws IllegalArgumentException if the index was built from a digraph of a different size
+     */
+    public synchronized void useIndex(SAPIndex labels) {
+        if (labels != null && !labels.matches(G.V(), G.E())) throw new IllegalArgumentException();
+        index = labels;
+    }
+
+    /**
+     * Returns the label index that answers the queries.
+     *
+     * @return the index; null if the queries search the digraph
+     */
+    public SAPIndex index() {
+        return index;
+    }
+
+    /**
+     * Makes every later query record its time and the work of its search, or stops recording.
+     *
+     * @param metrics where to record the queries; null to stop recording
+     */
+    public void setMetrics(SAPMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns where the queries record their time and work.
+     *
+     * @return the metrics; null if the queries are not recorded
+     */
+    public SAPMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns an immutable copy of the digraph searched by the queries, with the vertices and edges
+     * added so far. The caller must not modify it.
+     *
+     * @return the digraph
+     */
+    synchronized CSRDigraph digraph() {
+        return G.toCSR();
+    }
+
+    /**
+     * Returns the number of vertices of the digraph.
+     *
+     * @return the number of vertices
+     */
+    public int V() {
+        return G.V();
+    }
+
+    /**
+     * Adds a vertex with no edges to the digraph, and to the label index if there is one.
+     *
+     * @return the new vertex
+     */
+    public synchronized int addVertex() {
+        // Label the vertex before it becomes valid, so no query can see it unlabeled
+        int v = G.V();
+        SAPIndex labels = index;
+        if (labels != null && !labels.addVertex(v)) index = null;
+        G.addVertex();
+        return v;
+    }
+
+    /**
+     * Adds the edge v-&gt;w to the digraph, and updates the label index if there is one. The cost
+     * grows with the ancestors of w and the descendants of v, not with the size of the digraph.
+     * If the index cannot hold the new distances, it is dropped and queries search the digraph.
+     *
+     * @param v the tail of the edge
+     * @param w the head of the edge
+     * @throws IllegalArgumentException if any of the vertices are invalid
+     */
+    public synchronized void addEdge(int v, int w) {
+        validate(v, w);
+        G.addEdge(v, w);
+        SAPIndex labels = index;
+        if (labels != null && !labels.addEdge(v, w, G)) index = null;
+    }
+
+    /**
+     * Returns true if there is a directed path from v to w, by searching the ancestors of v.
+     *
+     * @param v the first vertex
+     * @param w the second vertex
+     * @return true if w is v or an ancestor of v
+     * @throws IllegalArgumentException if any of the vertices are invalid
+     */
+    boolean hasPath(int v, int w) {
+        validate(v, w);
+        return search().hasPath(v, w);
+    }
+
+    /**
+     * Returns v and all of its descendants, by searching the reverse digraph from v.
+     *
+     * @param v the vertex
+     * @return the descendants of v, starting with v
+     * @throws IllegalArgumentException if the vertex is invalid
+     */
+    int[] descendants(int v) {
+        validate(v, v);
+        return search().descendants(v);
+    }
+
+    /**
+     * Visits the vertices in order of the length of their shortest ancestral path to v, which is
+     * the length of the shortest path that goes up from v to an ancestor and then down to the
+     * vertex. The search expands one length at a time, up through the edges and down through the
+     * reverse digraph, so its cost grows with the neighborhood it covers, not with V.
+     *
+     * @param v       the iterable of vertices
+     * @param visitor receives each vertex once, with its length
+     * @throws IllegalArgumentException if the iterable is null or contains invalid vertices, or
+     *                                  the visitor is null
+     */
+    void nearest(Iterable<Integer> v, Visitor visitor) {
+        validate(v);
+        if (visitor == null) throw new IllegalArgumentException();
+        search().nearest(v, visitor);
+    }
+
+    /**
+     * Receives the vertices found by {@link #nearest}, in order of length.
+     */
+    interface Visitor {
+        /**
+         * Receives a vertex.
+         *
+         * @param vertex the vertex
+         * @param length the length of its shortest ancestral path to the sources
+         * @return false to stop the search once every vertex of this length has been visited
+         */
+        boolean visit(int vertex, int length);
+    }
+
+    /**
+     * Returns the number of vertices visited by the last query that the calling thread ran on this
+     * SAP, counting both directions of the search.
+     *
+     * @return the number of vertices visited by the last query; 0 if no query was run
+     */
+    public int lastVisitedCount() {
+        return search.get().visited;
     }
 
     /**
@@ -102,7 +511,8 @@ public class SAP {
      * @throws IllegalArgumentException if any of the vertices are invalid
      */
     private void validate(int v, int w) {
-        if (v < 0 || v >= G.V() || w < 0 || w >= G.V()) {
+        int V = G.V();
+        if (v < 0 || v >= V || w < 0 || w >= V) {
             throw new IllegalArgumentException();
         }
     }
@@ -115,160 +525,551 @@ public class SAP {
      * @throws IllegalArgumentException if any of the iterables are null or contain invalid vertices
      */
     private void validate(Iterable<Integer> v, Iterable<Integer> w) {
-        if (v == null || w == null) throw new IllegalArgumentException();
+        validate(v);
+        validate(w);
+    }
 
-        for (Integer vertexV : v) {
-            if (vertexV == null || vertexV < 0 || vertexV >= G.V())
-                throw new IllegalArgumentException();
-        }
-        for (Integer vertexW : w) {
-            if (vertexW == null || vertexW < 0 || vertexW >= G.V())
+    /**
+     * Validates an iterable of vertices.
+     *
+     * @param v the iterable of vertices
+     * @throws IllegalArgumentException if the iterable is null or contains invalid vertices
+     */
+    private void validate(Iterable<Integer> v) {
+        if (v == null) throw new IllegalArgumentException();
+
+        int V = G.V();
+        for (Integer vertex : v) {
+            if (vertex == null || vertex < 0 || vertex >= V)
                 throw new IllegalArgumentException();
         }
     }
 
     /**
-     * Helper method to find the shortest common ancestor (sca) using bidirectional BFS.
-     *
-     * @param v the first vertex
-     * @param w the second vertex
+     * The ancestors of a set of vertices, with their distances from the nearest vertex of the set.
      */
-    private void sca(int v, int w) {
-        if (v == w) {
-            length = 0;
-            sca = v;
-            return;
+    private static class Ancestors {
+        private final int[] vertices;  // The ancestors, including the vertices of the set
+        private final int[] distTo;    // Distance of each ancestor from the set
+
+        /**
+         * Initializes a set of ancestors.
+         *
+         * @param vertices the ancestors
+         * @param distTo   the distance of each ancestor
+         */
+        Ancestors(int[] vertices, int[] distTo) {
+            this.vertices = vertices;
+            this.distTo = distTo;
         }
+    }
 
-        // Initialize data structures for bidirectional BFS
-        queueV.clear();
-        queueW.clear();
-        distToV.clear();
-        distToW.clear();
-        visitedV.clear();
-        visitedW.clear();
+    /**
+     * The scratch state of a bit-parallel BFS from up to 64 sets of sources, in which bit i of the
+     * mask of a vertex stands for set i.
+     * <p>
+     * The three masks of each vertex sit next to each other in one array, so visiting a vertex
+     * touches one cache line instead of three. The masks of the vertices touched by a search are
+     * cleared when it ends, so the array is all zero between searches.
+     */
+    private static class Masks {
+        private final long[] masks;   // Seen, then the first reached at even and odd levels
+        private int[] level;          // Vertices of the current level
+        private int[] nextLevel;      // Vertices of the next level
+        private final int[] touched;  // Vertices whose seen mask is not zero
+        private int size, nextSize, touchedCount;
+        private int fresh = 1, next = 2;  // Offsets of the current and next level masks
 
-        // Initialize BFS for starting vertex v
-        queueV.add(v);
-        distToV.put(v, 0);
-        visitedV.add(v);
+        /**
+         * Initializes empty masks for a digraph with V vertices.
+         *
+         * @param V the number of vertices
+         */
+        Masks(int V) {
+            masks = new long[3 * V];
+            level = new int[V];
+            nextLevel = new int[V];
+            touched = new int[V];
+        }
 
-        // Initialize BFS for starting vertex w
-        queueW.add(w);
-        distToW.put(w, 0);
-        visitedW.add(w);
+        /**
+         * Adds sets to the sets that reached a vertex, queueing the vertex in the next level.
+         *
+         * @param v    the vertex
+         * @param bits the sets that reached the vertex
+         */
+        void reach(int v, long bits) {
+            int i = 3 * v;
+            long seen = masks[i];
+            long newBits = bits & ~seen;
+            if (newBits == 0) return;
+            if (seen == 0) touched[touchedCount++] = v;
+            if (masks[i + next] == 0) nextLevel[nextSize++] = v;
+            masks[i] = seen | newBits;
+            masks[i + next] |= newBits;
+        }
 
-        sca = -1;
-        length = Integer.MAX_VALUE;
+        /**
+         * Returns the sets that first reached a vertex of the current level, and forgets them.
+         *
+         * @param v the vertex
+         * @return the sets that reached the vertex at the current level
+         */
+        long take(int v) {
+            long bits = masks[3 * v + fresh];
+            masks[3 * v + fresh] = 0;
+            return bits;
+        }
 
-        // Perform bidirectional BFS
-        bidirectionalBFS();
+        /**
+         * Returns the sets that first reached a vertex of the current level.
+         *
+         * @param v the vertex
+         * @return the sets that reached the vertex at the current level
+         */
+        long fresh(int v) {
+            return masks[3 * v + fresh];
+        }
 
-        // If no common ancestor is found, set length to -1
-        if (sca == -1) {
-            length = -1;
+        /**
+         * Makes the next level the current one.
+         */
+        void advance() {
+            int offset = fresh;
+            fresh = next;
+            next = offset;
+            int[] vertices = level;
+            level = nextLevel;
+            nextLevel = vertices;
+            size = nextSize;
+            nextSize = 0;
+        }
+
+        /**
+         * Clears the masks of every vertex touched by the last search.
+         */
+        void clear() {
+            for (int i = 0; i < touchedCount; i++) {
+                int v = 3 * touched[i];
+                masks[v] = masks[v + 1] = masks[v + 2] = 0;
+            }
+            size = nextSize = touchedCount = 0;
         }
     }
 
     /**
-     * Helper method to find the shortest common ancestor (sca) for iterables using BFS.
-     *
-     * @param v the first iterable of vertices
-     * @param w the second iterable of vertices
+     * One direction of a bidirectional BFS, backed by primitive arrays.
+     * <p>
+     * A vertex counts as visited only if its mark equals the epoch of the current query, so the
+     * arrays never need to be cleared between queries, and a vertex enters the queue at most once
+     * per query, so a queue of V slots never overflows.
      */
-    private void sca(Iterable<Integer> v, Iterable<Integer> w) {
-        sca = -1;
-        length = Integer.MAX_VALUE;
-        Iterator<Integer> iteratorV = v.iterator();
-        Iterator<Integer> iteratorW = w.iterator();
+    private static class Frontier {
+        private final int[] queue;   // Vertices discovered in the current query, in BFS order
+        private final int[] distTo;  // Distance from the sources; valid only for marked vertices
+        private final int[] marked;  // Epoch of the query that last visited each vertex
+        private int head, tail;      // The vertices still to explore are queue[head..tail)
+        private int depth;           // Distance of the vertices still to explore
+
+        /**
+         * Initializes an empty frontier for a digraph with V vertices.
+         *
+         * @param V the number of vertices
+         */
+        Frontier(int V) {
+            queue = new int[V];
+            distTo = new int[V];
+            marked = new int[V];
+        }
 
-        if (!iteratorV.hasNext() || !iteratorW.hasNext()) {
-            length = -1;
-            return;
+        /**
+         * Marks a vertex as visited at the given distance and adds it to the queue.
+         *
+         * @param v     the vertex
+         * @param dist  the distance of the vertex from the sources
+         * @param epoch the epoch of the current query
+         */
+        void visit(int v, int dist, int epoch) {
+            marked[v] = epoch;
+            distTo[v] = dist;
+            queue[tail++] = v;
         }
 
-        // Initialize data structures for bidirectional BFS
-        queueV.clear();
-        queueW.clear();
-        distToV.clear();
-        distToW.clear();
-        visitedV.clear();
-        visitedW.clear();
+        /**
+         * Returns true if the queue has vertices left to explore.
+         *
+         * @return true if the queue is not empty
+         */
+        boolean hasNext() {
+            return head < tail;
+        }
 
-        Set<Integer> set = new HashSet<>();
+        /**
+         * Returns the number of vertices left to explore.
+         *
+         * @return the size of the queue
+         */
+        int size() {
+            return tail - head;
+        }
+    }
 
-        // Initialize BFS for starting vertex v
-        for (int vertexV : v) {
-            set.add(vertexV);
-            queueV.add(vertexV);
-            distToV.put(vertexV, 0);
-            visitedV.add(vertexV);
+    /**
+     * The scratch state of a single bidirectional BFS query.
+     * <p>
+     * Each thread owns one instance, which is reused by all the queries that thread runs. Starting
+     * a query only bumps the epoch, so its cost grows with the vertices it touches, not with V, and
+     * a query allocates nothing beyond the iterators of its arguments.
+     * <p>
+     * The arrays have room for some more vertices than the digraph had when the instance was
+     * created, so that adding vertices does not make every thread allocate new ones each time.
+     * Vertices added after the instance was created and beyond its room are not searched.
+     */
+    private class Search {
+        private final int capacity = G.V() + G.V() / 8 + 16;  // Number of vertices with room
+        private final Frontier fromV = new Frontier(capacity);
+        private final Frontier fromW = new Frontier(capacity);
+        private CSRDigraph base;                 // The digraph as it was built
+        private AtomicReferenceArray<int[]> added;  // Edges added since, read when a query starts
+        private Masks masks;      // Scratch state of multi-source searches; null until first used
+        private int epoch;        // Stamp of the current query in the marked arrays
+        private int length, sca;  // Result of the last query
+        private int visited;      // Number of vertices visited by the last query
+        private int dequeued;     // Number of vertices dequeued by the last query
+        private int scanned;      // Number of edges scanned by the last query
+        private int maxFrontier;  // Number of vertices of the largest level the last query expanded
+
+        /**
+         * Starts a new query: empties both queues and invalidates every visited mark.
+         */
+        private void reset() {
+            if (epoch == Integer.MAX_VALUE) {
+                // Out of stamps: clear the marks once and start counting again
+                Arrays.fill(fromV.marked, 0);
+                Arrays.fill(fromW.marked, 0);
+                epoch = 0;
+            }
+            epoch++;
+            dequeued = scanned = maxFrontier = 0;
+            base = G.base();
+            added = G.added();
+            fromV.head = fromV.tail = fromV.depth = 0;
+            fromW.head = fromW.tail = fromW.depth = 0;
+            sca = -1;
+            length = Integer.MAX_VALUE;
         }
 
-        // Initialize BFS for starting vertex w
-        for (int vertexW : w) {
-            if (set.contains(vertexW)) {
+        /**
+         * Helper method to find the shortest common ancestor (sca) using bidirectional BFS.
+         *
+         * @param v the first vertex
+         * @param w the second vertex
+         */
+        private void sca(int v, int w) {
+            if (v == w) {
                 length = 0;
-                sca = vertexW;
+                sca = v;
+                visited = 1;
+                dequeued = scanned = maxFrontier = 0;
                 return;
             }
-            queueW.add(vertexW);
-            distToW.put(vertexW, 0);
-            visitedW.add(vertexW);
+
+            reset();
+            fromV.visit(v, 0, epoch);
+            fromW.visit(w, 0, epoch);
+
+            // Perform bidirectional BFS
+            bidirectionalBFS();
+            finish();
+
+            // If no common ancestor is found, set length to -1
+            if (sca == -1) {
+                length = -1;
+            }
         }
 
-        // Perform bidirectional BFS
-        bidirectionalBFS();
+        /**
+         * Records how many vertices the query visited and dequeued.
+         */
+        private void finish() {
+            visited = fromV.tail + fromW.tail;
+            dequeued = fromV.head + fromW.head;
+        }
+
+        /**
+         * Helper method to find the shortest common ancestor (sca) for iterables using BFS.
+         *
+         * @param v the first iterable of vertices
+         * @param w the second iterable of vertices
+         */
+        private void sca(Iterable<Integer> v, Iterable<Integer> w) {
+            reset();
+
+            // Initialize BFS for starting vertices v
+            for (int vertexV : v) {
+                if (fromV.marked[vertexV] != epoch) fromV.visit(vertexV, 0, epoch);
+            }
+
+            // Initialize BFS for starting vertices w; a vertex in both sets is its own ancestor
+            for (int vertexW : w) {
+                if (fromV.marked[vertexW] == epoch) {
+                    length = 0;
+                    sca = vertexW;
+                    finish();
+                    return;
+                }
+                if (fromW.marked[vertexW] != epoch) fromW.visit(vertexW, 0, epoch);
+            }
+
+            if (!fromV.hasNext() || !fromW.hasNext()) {
+                length = -1;
+                finish();
+                return;
+            }
 
-        // If no common ancestor is found, set length to -1
-        if (sca == -1) {
-            length = -1;
+            // Perform bidirectional BFS
+            bidirectionalBFS();
+            finish();
+
+            // If no common ancestor is found, set length to -1
+            if (sca == -1) {
+                length = -1;
+            }
         }
-    }
 
-    /**
-     * Executes a bidirectional BFS to find the shortest common ancestor (sca) and shortest path
-     * length (length).
-     * <p>
-     * The bidirectional BFS alternates between exploring vertices from the starting vertex v
-     * (queueV)
-     * and the starting vertex w (queueW). This method continues until either of the queues is
-     * empty.
-     */
-    private void bidirectionalBFS() {
-        while (!queueV.isEmpty() || !queueW.isEmpty()) {
-            if (!queueV.isEmpty()) {
-                bfs(queueV, distToV, distToW, visitedV, visitedW);
+        /**
+         * Helper method to fill row i of the matrix of lengths, and the matching column, for the
+         * iterables after i.
+         *
+         * @param ancestors the ancestors of every iterable
+         * @param i         the row to fill
+         * @param lengths   the matrix of lengths
+         */
+        private void fillRow(Ancestors[] ancestors, int i, int[][] lengths) {
+            mark(ancestors[i]);
+            lengths[i][i] = ancestors[i].vertices.length == 0 ? -1 : 0;
+            for (int j = i + 1; j < ancestors.length; j++) {
+                lengths[i][j] = lengthToMarked(ancestors[j]);
+                lengths[j][i] = lengths[i][j];
+            }
+        }
+
+        /**
+         * Helper method to find every ancestor of an iterable of vertices with a full BFS.
+         *
+         * @param v the iterable of vertices
+         * @return the ancestors of the vertices
+         */
+        private Ancestors ancestors(Iterable<Integer> v) {
+            reset();
+            for (int vertex : v) {
+                if (fromV.marked[vertex] != epoch) fromV.visit(vertex, 0, epoch);
+            }
+            while (fromV.hasNext()) {
+                bfs(fromV, fromW);
             }
 
-            if (!queueW.isEmpty()) {
-                bfs(queueW, distToW, distToV, visitedW, visitedV);
+            int[] vertices = Arrays.copyOf(fromV.queue, fromV.tail);
+            int[] distTo = new int[vertices.length];
+            for (int i = 0; i < vertices.length; i++) {
+                distTo[i] = fromV.distTo[vertices[i]];
             }
+            return new Ancestors(vertices, distTo);
         }
-    }
 
-    /**
-     * Performs one level of BFS from the current vertex queue.
-     *
-     * @param queue          the current queue of vertices to explore
-     * @param distToCurrent  distance map for the current direction of BFS
-     * @param distToOther    distance map for the opposite direction of BFS
-     * @param visitedCurrent set of visited vertices for the current direction of BFS
-     * @param visitedOther   set of visited vertices for the opposite direction of BFS
-     */
-    private void bfs(Queue<Integer> queue, Map<Integer, Integer> distToCurrent,
-                     Map<Integer, Integer> distToOther, Set<Integer> visitedCurrent,
-                     Set<Integer> visitedOther) {
-        Integer vertex = queue.poll();
-        if (vertex == null) return;
+        /**
+         * Helper method to find the shortest ancestral paths between a set of ancestors and each of
+         * the sets [from..to) with one bit-parallel BFS.
+         * <p>
+         * The search expands one level at a time from all the sets together. A set reaches each
+         * vertex at most once, the first time being along a shortest path, and stops expanding once
+         * its next level cannot beat the best path it has found.
+         *
+         * @param ancestors the ancestors of the other side of every query
+         * @param sets      the sets of sources
+         * @param from      the first set to search
+         * @param to        the set just past the last one
+         * @param results   where to store the packed answer of each set
+         */
+        private void multiSource(Ancestors ancestors, List<? extends Iterable<Integer>> sets,
+                                 int from, int to, long[] results) {
+            mark(ancestors);
+            if (masks == null) masks = new Masks(capacity);
+            Masks m = masks;
+            int count = to - from;
+            int[] best = new int[count];
+            int[] found = new int[count];
+            Arrays.fill(best, Integer.MAX_VALUE);
+            Arrays.fill(found, -1);
+
+            for (int i = 0; i < count; i++) {
+                for (int vertex : sets.get(from + i)) m.reach(vertex, 1L << i);
+            }
+            m.advance();
+
+            int baseV = base.V();
+            for (int depth = 0; m.size > 0; depth++) {
+                // Record the paths through the vertices that the sets reached at this depth
+                for (int k = 0; k < m.size; k++) {
+                    int vertex = m.level[k];
+                    if (fromW.marked[vertex] != epoch) continue;
+                    int dist = depth + fromW.distTo[vertex];
+                    for (long bits = m.fresh(vertex); bits != 0; bits &= bits - 1) {
+                        int i = Long.numberOfTrailingZeros(bits);
+                        if (dist < best[i]) {
+                            best[i] = dist;
+                            found[i] = vertex;
+                        }
+                    }
+                }
+
+                // Only the sets whose best path could still get shorter go one level further
+                long active = 0;
+                for (int i = 0; i < count; i++) {
+                    if (best[i] > depth + 1) active |= 1L << i;
+                }
+                if (active == 0) break;
+
+                maxFrontier = Math.max(maxFrontier, m.size);
+                int edges = 0;
+                for (int k = 0; k < m.size; k++) {
+                    int vertex = m.level[k];
+                    long bits = m.take(vertex) & active;
+                    if (bits == 0) continue;
+                    dequeued++;
+                    if (vertex < baseV) {
+                        int first = base.offset(vertex), last = base.offset(vertex + 1);
+                        edges += last - first;
+                        for (int i = first; i < last; i++) {
+                            m.reach(base.target(i), bits);
+                        }
+                    }
+                    int[] more = added == null || vertex >= added.length() ? null
+                                                                           : added.get(vertex);
+                    if (more != null) {
+                        edges += more.length;
+                        for (int neighbor : more) {
+                            if (neighbor < capacity) m.reach(neighbor, bits);
+                        }
+                    }
+                }
+                scanned += edges;
+                m.advance();
+            }
+
+            visited = m.touchedCount;
+            m.clear();
+            for (int i = 0; i < count; i++) {
+                results[from + i] = best[i] == Integer.MAX_VALUE ? pack(-1, -1)
+                                                                 : pack(best[i], found[i]);
+            }
+        }
+
+        /**
+         * Starts a new query and marks a set of ancestors as visited from the w side.
+         *
+         * @param ancestors the ancestors to mark
+         */
+        private void mark(Ancestors ancestors) {
+            reset();
+            for (int i = 0; i < ancestors.vertices.length; i++) {
+                if (ancestors.vertices[i] >= capacity) continue;
+                fromW.marked[ancestors.vertices[i]] = epoch;
+                fromW.distTo[ancestors.vertices[i]] = ancestors.distTo[i];
+            }
+        }
+
+        /**
+         * Returns the length of the shortest ancestral path between a set of ancestors and the
+         * ancestors marked by {@link #mark}.
+         *
+         * @param ancestors the ancestors
+         * @return the length of the shortest ancestral path; -1 if no such path
+         */
+        private int lengthToMarked(Ancestors ancestors) {
+            int best = -1;
+            for (int i = 0; i < ancestors.vertices.length; i++) {
+                int vertex = ancestors.vertices[i];
+                if (vertex < capacity && fromW.marked[vertex] == epoch) {
+                    int dist = ancestors.distTo[i] + fromW.distTo[vertex];
+                    if (best == -1 || dist < best) best = dist;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Executes a bidirectional BFS to find the shortest common ancestor (sca) and shortest path
+         * length (length).
+         * <p>
+         * The search expands one whole level at a time, always from the direction with the smaller
+         * queue. A direction stops once its next level is at least as deep as the best length found
+         * so far: every vertex it has not yet visited is at least that far from its sources, so no
+         * common ancestor found through it could be shorter. Vertices it has already visited are
+         * still checked when the opposite direction reaches them.
+         */
+        private void bidirectionalBFS() {
+            while (true) {
+                boolean expandV = fromV.hasNext() && fromV.depth + 1 < length;
+                boolean expandW = fromW.hasNext() && fromW.depth + 1 < length;
+                if (!expandV && !expandW) return;
+
+                if (expandV && (!expandW || fromV.size() <= fromW.size())) {
+                    bfs(fromV, fromW);
+                }
+                else {
+                    bfs(fromW, fromV);
+                }
+            }
+        }
 
-        for (int neighbor : G.adj(vertex)) {
-            if (!visitedCurrent.contains(neighbor)) {
-                queue.add(neighbor);
-                visitedCurrent.add(neighbor);
-                distToCurrent.put(neighbor, distToCurrent.get(vertex) + 1);
-                if (visitedOther.contains(neighbor)) {
-                    int totalDist = distToCurrent.get(neighbor) + distToOther.get(neighbor);
+        /**
+         * Explores the current level of the queue of the given direction.
+         *
+         * @param current the frontier of the current direction of BFS
+         * @param other   the frontier of the opposite direction of BFS
+         */
+        private void bfs(Frontier current, Frontier other) {
+            int dist = ++current.depth;
+            int end = current.tail;
+            maxFrontier = Math.max(maxFrontier, end - current.head);
+
+            int baseV = base.V();
+            int edges = 0;
+            while (current.head < end) {
+                int vertex = current.queue[current.head++];
+                if (vertex < baseV) {
+                    int first = base.offset(vertex), last = base.offset(vertex + 1);
+                    edges += last - first;
+                    for (int i = first; i < last; i++) {
+                        relax(current, other, base.target(i), dist);
+                    }
+                }
+                int[] more = added == null || vertex >= added.length() ? null : added.get(vertex);
+                if (more != null) {
+                    edges += more.length;
+                    for (int neighbor : more) {
+                        if (neighbor < capacity) relax(current, other, neighbor, dist);
+                    }
+                }
+            }
+            scanned += edges;
+        }
+
+        /**
+         * Visits a neighbor reached from the current direction, if it was not visited yet, and
+         * records a shorter ancestral path if the opposite direction already reached it.
+         *
+         * @param current  the frontier of the current direction of BFS
+         * @param other    the frontier of the opposite direction of BFS
+         * @param neighbor the vertex reached
+         * @param dist     the distance of the vertex from the sources of the current direction
+         */
+        private void relax(Frontier current, Frontier other, int neighbor, int dist) {
+            if (current.marked[neighbor] != epoch) {
+                current.visit(neighbor, dist, epoch);
+                if (other.marked[neighbor] == epoch) {
+                    int totalDist = dist + other.distTo[neighbor];
                     if (totalDist < length) {
                         length = totalDist;
                         sca = neighbor;
@@ -276,6 +1077,147 @@ public class SAP {
                 }
             }
         }
+
+        /**
+         * Helper method to check whether w is v or an ancestor of v with a full BFS from v.
+         *
+         * @param v the first vertex
+         * @param w the second vertex
+         * @return true if there is a directed path from v to w
+         */
+        private boolean hasPath(int v, int w) {
+            reset();
+            fromV.visit(v, 0, epoch);
+            while (fromV.hasNext() && fromV.marked[w] != epoch) {
+                bfs(fromV, fromW);
+            }
+            visited = fromV.tail;
+            return fromV.marked[w] == epoch;
+        }
+
+        /**
+         * Helper method to visit the vertices by increasing length of their shortest ancestral
+         * path to v, with a BFS that goes up in fromV and down in fromW. Every vertex reached going
+         * up is also reached going down at the same length, since it is its own descendant.
+         *
+         * @param v       the iterable of vertices
+         * @param visitor receives each vertex once, with its length
+         */
+        private void nearest(Iterable<Integer> v, Visitor visitor) {
+            reset();
+            CSRDigraph reverse = G.baseReverse();
+            AtomicReferenceArray<int[]> addedReverse = G.addedReverse();
+            int baseV = base.V();
+            boolean enough = false;
+            for (int vertex : v) {
+                if (fromV.marked[vertex] != epoch) {
+                    fromV.visit(vertex, 0, epoch);
+                    fromW.visit(vertex, 0, epoch);
+                    if (!visitor.visit(vertex, 0)) enough = true;
+                }
+            }
+
+            for (int length = 1; !enough && (fromV.hasNext() || fromW.hasNext()); length++) {
+                int upEnd = fromV.tail, downEnd = fromW.tail;
+
+                // One level up: the new ancestors
+                while (fromV.head < upEnd) {
+                    int vertex = fromV.queue[fromV.head++];
+                    if (vertex < baseV) {
+                        for (int i = base.offset(vertex); i < base.offset(vertex + 1); i++) {
+                            enough |= !reach(base.target(i), length, visitor);
+                        }
+                    }
+                    int[] more = added == null || vertex >= added.length() ? null
+                                                                           : added.get(vertex);
+                    if (more != null) {
+                        for (int parent : more) {
+                            if (parent < capacity) enough |= !reach(parent, length, visitor);
+                        }
+                    }
+                }
+
+                // One level down from every vertex of the previous length
+                while (fromW.head < downEnd) {
+                    int vertex = fromW.queue[fromW.head++];
+                    if (vertex < reverse.V()) {
+                        for (int i = reverse.offset(vertex); i < reverse.offset(vertex + 1); i++) {
+                            enough |= !descend(reverse.target(i), length, visitor);
+                        }
+                    }
+                    int[] more = addedReverse == null || vertex >= addedReverse.length() ? null
+                                 : addedReverse.get(vertex);
+                    if (more != null) {
+                        for (int child : more) {
+                            if (child < capacity) enough |= !descend(child, length, visitor);
+                        }
+                    }
+                }
+            }
+            finish();
+        }
+
+        /**
+         * Reaches an ancestor going up, which also reaches it going down if it was not yet.
+         *
+         * @param vertex  the ancestor
+         * @param length  the length of the path to it
+         * @param visitor receives the vertex if it was not reached yet
+         * @return false if the visitor asked to stop
+         */
+        private boolean reach(int vertex, int length, Visitor visitor) {
+            if (fromV.marked[vertex] == epoch) return true;
+            fromV.visit(vertex, length, epoch);
+            return descend(vertex, length, visitor);
+        }
+
+        /**
+         * Reaches a vertex going down.
+         *
+         * @param vertex  the vertex
+         * @param length  the length of the path to it
+         * @param visitor receives the vertex if it was not reached yet
+         * @return false if the visitor asked to stop
+         */
+        private boolean descend(int vertex, int length, Visitor visitor) {
+            if (fromW.marked[vertex] == epoch) return true;
+            fromW.visit(vertex, length, epoch);
+            return visitor.visit(vertex, length);
+        }
+
+        /**
+         * Helper method to find v and every descendant of v with a full BFS of the reverse
+         * digraph.
+         *
+         * @param v the vertex
+         * @return the descendants of v, starting with v
+         */
+        private int[] descendants(int v) {
+            reset();
+            CSRDigraph reverse = G.baseReverse();
+            AtomicReferenceArray<int[]> addedReverse = G.addedReverse();
+            fromV.visit(v, 0, epoch);
+            while (fromV.hasNext()) {
+                int vertex = fromV.queue[fromV.head++];
+                if (vertex < reverse.V()) {
+                    for (int i = reverse.offset(vertex); i < reverse.offset(vertex + 1); i++) {
+                        int child = reverse.target(i);
+                        if (fromV.marked[child] != epoch) fromV.visit(child, 0, epoch);
+                    }
+                }
+                int[] more = addedReverse == null || vertex >= addedReverse.length()
+                             ? null : addedReverse.get(vertex);
+                if (more != null) {
+                    for (int child : more) {
+                        if (child < capacity && fromV.marked[child] != epoch) {
+                            fromV.visit(child, 0, epoch);
+                        }
+                    }
+                }
+            }
+            visited = fromV.tail;
+            return Arrays.copyOf(fromV.queue, fromV.tail);
+        }
     }
 
     /**
@@ -293,5 +1235,6 @@ public class SAP {
         int ancestor = sap.ancestor(v, w);
         int length = sap.length(v, w);
         StdOut.printf("length = %d, ancestor = %d\n", length, ancestor);
+        StdOut.printf("visited %d vertices\n", sap.lastVisitedCount());
     }
 }
\ No newline at end of file
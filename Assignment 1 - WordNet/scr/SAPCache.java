@@ -0,0 +1,313 @@
+import edu.princeton.cs.algs4.StdOut;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * The SAPCache class is a bounded, thread-safe cache of shortest ancestral path results, keyed on
+ * the unordered pair of vertex lists of a query, so {@code (a, b)} and {@code (b, a)} share one
+ * entry.
+ * <p>
+ * The entries are split across independently locked segments, so concurrent lookups of different
+ * pairs rarely contend. Each segment evicts its own entries according to the eviction policy once
+ * it holds its share of the capacity.
+ * <p>
+ * When the digraph changes, {@link #invalidate} stamps the affected vertices with a new
+ * generation, at a cost that grows with the number of those vertices, not with the size of the
+ * cache. Each result remembers the generation it was computed in, and a lookup drops a result
+ * that involves a vertex stamped after it, so only the results that may have changed are lost.
+ * The stamps are kept in an array indexed by vertex, so checking them costs a read per vertex of
+ * the query however many invalidations came before.
+ */
+public class SAPCache {
+    private static final int SEGMENTS = 16;  // Number of independently locked segments
+
+    private final Segment[] segments;
+    private final LongAdder hits, misses, evictions;
+    private volatile AtomicLongArray stamps = new AtomicLongArray(0);  // Last invalidation
+    private volatile long generation;  // Number of invalidations so far
+
+    /**
+     * The order in which a full cache evicts its entries.
+     */
+    public enum Policy {
+        /** Evicts the least recently used entry. */
+        LRU,
+        /** Evicts the oldest entry, regardless of how often it is used. */
+        FIFO
+    }
+
+    /**
+     * An unordered pair of vertex lists.
+     */
+    private static class Key {
+        private final List<Integer> v, w;
+        private final int hash;
+
+        /**
+         * Initializes the key of a query between two lists of vertices.
+         *
+         * @param v the first list of vertices
+         * @param w the second list of vertices
+         */
+        Key(List<Integer> v, List<Integer> w) {
+            this.v = v;
+            this.w = w;
+            int hashV = v.hashCode();
+            int hashW = w.hashCode();
+            hash = 31 * Math.min(hashV, hashW) + Math.max(hashV, hashW);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof Key)) return false;
+            Key that = (Key) other;
+            if (hash != that.hash) return false;
+            return (v.equals(that.v) && w.equals(that.w)) || (v.equals(that.w) && w.equals(that.v));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A cached result and the generation it was computed in.
+     */
+    private static class Result {
+        private final long result;
+        private final long generation;
+
+        /**
+         * Initializes a cached result.
+         *
+         * @param result     the packed result of the query
+         * @param generation the generation the result was computed in
+         */
+        Result(long result, long generation) {
+            this.result = result;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * A bounded map of results guarded by its own lock.
+     */
+    private class Segment extends LinkedHashMap<Key, Result> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        /**
+         * Initializes an empty segment.
+         *
+         * @param capacity    the maximum number of entries
+         * @param accessOrder true to order the entries by access, false by insertion
+         */
+        Segment(int capacity, boolean accessOrder) {
+            super(16, 0.75f, accessOrder);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+            if (size() <= capacity) return false;
+            evictions.increment();
+            return true;
+        }
+    }
+
+    /**
+     * Initializes an empty cache.
+     *
+     * @param capacity the maximum number of results to keep
+     * @param policy   the eviction policy
+     * @throws IllegalArgumentException if the capacity is not positive or the policy is null
+     */
+    public SAPCache(int capacity, Policy policy) {
+        if (capacity <= 0 || policy == null) throw new IllegalArgumentException();
+        int count = Math.min(SEGMENTS, capacity);
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // Spread the capacity so that the segments add up to exactly the requested total
+            int share = capacity / count + (i < capacity % count ? 1 : 0);
+            segments[i] = new Segment(share, policy == Policy.LRU);
+        }
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+    }
+
+    /**
+     * Returns the cached result of the query between two lists of vertices, running the search
+     * and caching its result on a miss. The search runs outside any lock, so two threads missing
+     * on the same pair at once may both run it. A result that an invalidation made stale counts
+     * as a miss.
+     *
+     * @param v      the first list of vertices
+     * @param w      the second list of vertices
+     * @param search computes the result of a query
+     * @return the result of the query
+     */
+    public long get(List<Integer> v, List<Integer> w,
+                    ToLongBiFunction<List<Integer>, List<Integer>> search) {
+        Key key = new Key(v, w);
+        Segment segment = segmentFor(key);
+        Result cached;
+        synchronized (segment) {
+            cached = segment.get(key);
+        }
+        if (cached != null) {
+            if (!isStale(v, cached.generation) && !isStale(w, cached.generation)) {
+                hits.increment();
+                return cached.result;
+            }
+            synchronized (segment) {
+                segment.remove(key, cached);
+            }
+        }
+
+        misses.increment();
+        long before = generation;
+        long computed = search.applyAsLong(v, w);
+        synchronized (segment) {
+            segment.put(key, new Result(computed, before));
+        }
+        return computed;
+    }
+
+    /**
+     * Returns true if a vertex of a list was invalidated after the given generation.
+     *
+     * @param vertices   the list of vertices
+     * @param generation the generation a result was computed in
+     * @return true if the result may involve a change to the digraph
+     */
+    private boolean isStale(List<Integer> vertices, long generation) {
+        AtomicLongArray stamped = stamps;
+        if (stamped.length() == 0) return false;
+        for (int vertex : vertices) {
+            if (vertex < stamped.length() && stamped.get(vertex) > generation) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the segment that holds a key.
+     *
+     * @param key the key
+     * @return the segment of the key
+     */
+    private Segment segmentFor(Key key) {
+        int h = key.hash ^ (key.hash >>> 16);
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    /**
+     * Removes every entry from the cache. The counters are not reset.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Invalidates every result of a query that involves an affected vertex, for instance the
+     * descendants of a vertex that just got a new hypernym. The cost grows with the number of
+     * affected vertices, not with the size of the cache: the stale results are dropped when they
+     * are next looked up, or evicted like any other.
+     * <p>
+     * The change to the digraph must be visible to searches before this is called. A search that
+     * started before it then belongs to an older generation, so its result is stale once cached.
+     *
+     * @param affected the affected vertices
+     * @throws IllegalArgumentException if the array is null or holds a negative vertex
+     */
+    public synchronized void invalidate(int[] affected) {
+        if (affected == null) throw new IllegalArgumentException();
+        int max = -1;
+        for (int vertex : affected) {
+            if (vertex < 0) throw new IllegalArgumentException();
+            max = Math.max(max, vertex);
+        }
+        AtomicLongArray stamped = stamps;
+        if (max >= stamped.length()) {
+            // Grow by doubling, so the copies stay linear in the number of vertices
+            AtomicLongArray grown = new AtomicLongArray(Math.max(max + 1, 2 * stamped.length()));
+            for (int i = 0; i < stamped.length(); i++) grown.set(i, stamped.get(i));
+            stamps = grown;
+            stamped = grown;
+        }
+        // Stamp the vertices before moving on, so no lookup sees the new generation without them
+        long next = generation + 1;
+        for (int vertex : affected) stamped.set(vertex, next);
+        generation = next;
+    }
+
+    /**
+     * Returns the number of results currently in the cache.
+     *
+     * @return the number of cached results
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that had to run the search.
+     *
+     * @return the number of misses
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of results evicted to make room for new ones.
+     *
+     * @return the number of evictions
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Unit testing of this class.
+     *
+     * @param args command-line arguments
+     */
+    public static void main(String[] args) {
+        WordNet wordnet = new WordNet(args[0], args[1], new SAPCache(2, Policy.LRU));
+        SAPCache cache = wordnet.cache();
+        wordnet.distance("plectron", "novitiate");
+        wordnet.distance("novitiate", "plectron");
+        wordnet.sap("plectron", "novitiate");
+        wordnet.distance("worm", "bird");
+        wordnet.distance("edible_fruit", "physical_entity");
+        StdOut.printf("hits = %d, misses = %d, evictions = %d, size = %d\n",
+                      cache.hits(), cache.misses(), cache.evictions(), cache.size());
+    }
+}
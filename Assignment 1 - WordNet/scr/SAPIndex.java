@@ -0,0 +1,760 @@
+import edu.princeton.cs.algs4.Digraph;
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.StdOut;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The SAPIndex class is a 2-hop label index that answers shortest ancestral path queries without
+ * searching the digraph.
+ * <p>
+ * Every vertex stores a label: a list of some of its ancestors (the hubs) with its distance to
+ * each. The labels are built by pruned landmark labeling: vertices become hubs one at a time, in
+ * order of decreasing indegree, and each hub runs a BFS down to its descendants that stops at any
+ * vertex whose distance to the hub is already covered by the labels of earlier hubs. The result
+ * guarantees that, for any two vertices, some common hub of their labels lies on a shortest
+ * ancestral path, so a query is a merge of two sorted labels.
+ * <p>
+ * Each label entry packs the rank of the hub and the distance to it into one int, so the index
+ * supports up to 2<sup>23</sup> vertices and distances up to 255.
+ * <p>
+ * The index follows vertices and edges added to the digraph after it was built. A new vertex
+ * becomes the hub of the next rank, and a new edge v-&gt;w resumes, from v, the pruned BFS of every
+ * hub in the label of w. Labels that change are copied into a side table of labels by vertex, kept
+ * as a trie of fixed-size blocks. An update clones only the blocks on the paths to the labels it
+ * changes and publishes the new root once it is done, so a query running meanwhile sees the index
+ * either before or after the update, and an update costs in proportion to the labels it touches,
+ * not to the number of vertices. Updates must not run concurrently with each other.
+ */
+public class SAPIndex {
+    private static final int MAGIC = 0x53415049;  // "SAPI", the header of a saved index
+    private static final int DIST_BITS = 8;       // Low bits of an entry holding the distance
+    private static final int DIST_MASK = (1 << DIST_BITS) - 1;
+    private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+    private volatile int V, E;      // Size of the indexed digraph
+    private final int[] hubs;       // Vertex of each hub rank
+    private final int[] offsets;    // Label of v is labels[offsets[v]..offsets[v + 1])
+    private final int[] labels;     // Hub rank << DIST_BITS | distance, sorted by rank
+    private final long buildMillis; // Time spent building or loading the index
+    private volatile int[] addedHubs = new int[0];  // Vertex of each rank after the built ones
+    private volatile int addedCount;    // Number of ranks in use in addedHubs
+    private volatile LabelTable updated;  // Labels changed since; never modified once published
+    private int[] queue = new int[0];   // Vertices reached by a resumed BFS, in BFS order
+    private int[] distTo = new int[0];  // Distance of each reached vertex to the hub
+    private int[] marked = new int[0];  // Stamp of the resumed BFS that last reached each vertex
+    private int stamp;                  // Stamp of the current resumed BFS
+
+    /**
+     * Initializes an index from its arrays.
+     *
+     * @param V           the number of vertices
+     * @param E           the number of edges
+     * @param hubs        the vertex of each hub rank
+     * @param offsets     the start of the label of each vertex
+     * @param labels      the packed label entries
+     * @param buildMillis the time spent building or loading the index
+     */
+    private SAPIndex(int V, int E, int[] hubs, int[] offsets, int[] labels, long buildMillis) {
+        this.V = V;
+        this.E = E;
+        this.hubs = hubs;
+        this.offsets = offsets;
+        this.labels = labels;
+        this.buildMillis = buildMillis;
+    }
+
+    /**
+     * Builds the index of a digraph.
+     *
+     * @param G the digraph
+     * @return the index of the digraph
+     * @throws IllegalArgumentException if the digraph is null, has 2<sup>23</sup> vertices or
+     *                                  more, or has ancestors more than 255 edges away
+     */
+    public static SAPIndex build(Digraph G) {
+        if (G == null) throw new IllegalArgumentException();
+        return build(new CSRDigraph(G));
+    }
+
+    /**
+     * Builds the index of a digraph in compressed sparse row form.
+     *
+     * @param G the digraph
+     * @return the index of the digraph
+     * @throws IllegalArgumentException if the digraph has 2<sup>23</sup> vertices or more, or has
+     *                                  ancestors more than 255 edges away
+     */
+    static SAPIndex build(CSRDigraph G) {
+        if (G.V() >= 1 << (Integer.SIZE - 1 - DIST_BITS)) throw new IllegalArgumentException();
+        long start = System.currentTimeMillis();
+        int n = G.V();
+        CSRDigraph reverse = G.reverse();
+
+        // Rank the vertices by decreasing indegree: a vertex with many hyponyms covers many paths
+        Integer[] byDegree = new Integer[n];
+        for (int v = 0; v < n; v++) byDegree[v] = v;
+        Arrays.sort(byDegree, (a, b) -> reverse.outdegree(b) != reverse.outdegree(a)
+                                        ? reverse.outdegree(b) - reverse.outdegree(a) : a - b);
+        int[] hubs = new int[n];
+        for (int r = 0; r < n; r++) hubs[r] = byDegree[r];
+
+        int[][] label = new int[n][];
+        int[] size = new int[n];
+        int[] hubDist = new int[n];  // Distance from the current hub to each hub rank
+        Arrays.fill(hubDist, INFINITY);
+        int[] queue = new int[n];
+        int[] distTo = new int[n];
+        int[] marked = new int[n];  // Rank + 1 of the last hub whose BFS visited each vertex
+
+        for (int r = 0; r < n; r++) {
+            int hub = hubs[r];
+            for (int i = 0; i < size[hub]; i++) {
+                hubDist[label[hub][i] >>> DIST_BITS] = label[hub][i] & DIST_MASK;
+            }
+
+            int head = 0, tail = 0;
+            queue[tail++] = hub;
+            distTo[hub] = 0;
+            marked[hub] = r + 1;
+            while (head < tail) {
+                int v = queue[head++];
+                int dist = distTo[v];
+
+                // Prune v if the labels of earlier hubs already cover its distance to this hub
+                boolean covered = false;
+                for (int i = 0; i < size[v] && !covered; i++) {
+                    int entry = label[v][i];
+                    covered = hubDist[entry >>> DIST_BITS] + (entry & DIST_MASK) <= dist;
+                }
+                if (covered) continue;
+
+                if (dist > DIST_MASK) throw new IllegalArgumentException();
+                if (label[v] == null) label[v] = new int[4];
+                else if (size[v] == label[v].length)
+                    label[v] = Arrays.copyOf(label[v], 2 * size[v]);
+                label[v][size[v]++] = r << DIST_BITS | dist;
+
+                for (int i = reverse.offset(v); i < reverse.offset(v + 1); i++) {
+                    int w = reverse.target(i);
+                    if (marked[w] != r + 1) {
+                        marked[w] = r + 1;
+                        distTo[w] = dist + 1;
+                        queue[tail++] = w;
+                    }
+                }
+            }
+
+            for (int i = 0; i < size[hub]; i++) {
+                hubDist[label[hub][i] >>> DIST_BITS] = INFINITY;
+            }
+        }
+
+        // Flatten the labels into one array
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v++) offsets[v + 1] = offsets[v] + size[v];
+        int[] labels = new int[offsets[n]];
+        for (int v = 0; v < n; v++) {
+            if (size[v] > 0) System.arraycopy(label[v], 0, labels, offsets[v], size[v]);
+        }
+        return new SAPIndex(n, G.E(), hubs, offsets, labels, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Loads an index saved by {@link #save}. The whole index is checked as it is loaded, so a
+     * corrupted or foreign file is rejected here rather than failing or answering wrongly in a
+     * query: the labels must tile the label array in order, the hubs must rank every vertex
+     * exactly once, and each label must list hubs of valid ranks in increasing order.
+     *
+     * @param file the name of the file
+     * @return the index in the file
+     * @throws IllegalArgumentException if the file name is null or the file is not a valid index
+     * @throws UncheckedIOException     if the file cannot be read
+     */
+    public static SAPIndex load(String file) {
+        if (file == null) throw new IllegalArgumentException();
+        long start = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading until the whole file is in the buffer
+            }
+            buffer.flip();
+            IntBuffer ints = buffer.asIntBuffer();
+            if (ints.remaining() < 4 || ints.get() != MAGIC) throw new IllegalArgumentException();
+            int n = ints.get();
+            int e = ints.get();
+            int count = ints.get();
+            if (n < 0 || n >= 1 << (Integer.SIZE - 1 - DIST_BITS) || e < 0 || count < 0
+                    || ints.remaining() != 2L * n + 1 + count) {
+                throw new IllegalArgumentException();
+            }
+            int[] hubs = new int[n];
+            int[] offsets = new int[n + 1];
+            int[] labels = new int[count];
+            ints.get(hubs);
+            ints.get(offsets);
+            ints.get(labels);
+            validate(hubs, offsets, labels);
+            return new SAPIndex(n, e, hubs, offsets, labels, System.currentTimeMillis() - start);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Checks the arrays of a loaded index.
+     *
+     * @param hubs    the vertex of each hub rank
+     * @param offsets the start of the label of each vertex
+     * @param labels  the packed label entries
+     * @throws IllegalArgumentException if the arrays do not form an index
+     */
+    private static void validate(int[] hubs, int[] offsets, int[] labels) {
+        int n = hubs.length;
+        boolean[] ranked = new boolean[n];
+        for (int hub : hubs) {
+            if (hub < 0 || hub >= n || ranked[hub]) throw new IllegalArgumentException();
+            ranked[hub] = true;
+        }
+        if (offsets[0] != 0 || offsets[n] != labels.length) throw new IllegalArgumentException();
+        for (int v = 0; v < n; v++) {
+            if (offsets[v + 1] < offsets[v]) throw new IllegalArgumentException();
+            int previous = -1;
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                int rank = labels[i] >>> DIST_BITS;
+                if (rank >= n || rank <= previous) throw new IllegalArgumentException();
+                previous = rank;
+            }
+        }
+    }
+
+    /**
+     * Saves the index to a file, so that it can be loaded instead of rebuilt.
+     *
+     * @param file the name of the file
+     * @throws IllegalArgumentException if the file name is null
+     * @throws UncheckedIOException     if the file cannot be written
+     */
+    public void save(String file) {
+        if (file == null) throw new IllegalArgumentException();
+        int n = V;
+        int[] allHubs = hubs;
+        int[] allOffsets = offsets;
+        int[] allLabels = labels;
+        if (updated != null) {
+            // Flatten the labels again, with the ones that changed since the index was built
+            int added = addedCount;
+            allHubs = Arrays.copyOf(hubs, hubs.length + added);
+            System.arraycopy(addedHubs, 0, allHubs, hubs.length, added);
+            allOffsets = new int[n + 1];
+            LabelTable changed = updated;
+            for (int v = 0; v < n; v++) allOffsets[v + 1] = allOffsets[v] + labelSize(changed, v);
+            allLabels = new int[allOffsets[n]];
+            for (int v = 0; v < n; v++) {
+                int[] label = label(changed, v);
+                System.arraycopy(label, 0, allLabels, allOffsets[v], label.length);
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES * (4 + 2 * n + 1 + allLabels.length));
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.put(MAGIC).put(n).put(E).put(allLabels.length);
+        ints.put(allHubs).put(allOffsets).put(allLabels);
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.WRITE,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the number of entries in the current label of a vertex.
+     *
+     * @param changed the changed labels; null if none changed
+     * @param v       the vertex
+     * @return the size of the label of v
+     */
+    private int labelSize(LabelTable changed, int v) {
+        int[] label = changed(changed, v);
+        if (label != null) return label.length;
+        return v < hubs.length ? offsets[v + 1] - offsets[v] : 0;
+    }
+
+    /**
+     * Returns true if the index was built from a digraph of the given size.
+     *
+     * @param V the number of vertices of the digraph
+     * @param E the number of edges of the digraph
+     * @return true if the index matches the number of vertices and edges of the digraph
+     */
+    boolean matches(int V, int E) {
+        return this.V == V && this.E == E;
+    }
+
+    /**
+     * Returns the shortest ancestral path between v and w, packed like {@link SAP#query}.
+     *
+     * @param v the first vertex
+     * @param w the second vertex
+     * @return the packed length and ancestor; length and ancestor are -1 if no such path
+     */
+    long query(int v, int w) {
+        return query(updated, v, w, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the shortest ancestral path between v and w through the hubs up to the given rank,
+     * according to the given changed labels. A vertex is its own common ancestor, whether or not
+     * its label is published yet.
+     *
+     * @param changed the changed labels; null if none changed
+     * @param v       the first vertex
+     * @param w       the second vertex
+     * @param maxRank the last rank of a hub the path may go through
+     * @return the packed length and ancestor; length and ancestor are -1 if no such path
+     */
+    private long query(LabelTable changed, int v, int w, int maxRank) {
+        if (v == w) return SAP.pack(0, v);
+        int[] labelV = changed(changed, v);
+        int[] labelW = changed(changed, w);
+        int[] a = labels, b = labels;
+        int i = 0, endV = 0, j = 0, endW = 0;
+        if (labelV != null) {
+            a = labelV;
+            endV = labelV.length;
+        }
+        else if (v < hubs.length) {
+            i = offsets[v];
+            endV = offsets[v + 1];
+        }
+        if (labelW != null) {
+            b = labelW;
+            endW = labelW.length;
+        }
+        else if (w < hubs.length) {
+            j = offsets[w];
+            endW = offsets[w + 1];
+        }
+
+        int best = INFINITY, hub = -1;
+        while (i < endV && j < endW) {
+            int rankV = a[i] >>> DIST_BITS;
+            int rankW = b[j] >>> DIST_BITS;
+            if (rankV > maxRank || rankW > maxRank) break;
+            if (rankV < rankW) i++;
+            else if (rankV > rankW) j++;
+            else {
+                int dist = (a[i++] & DIST_MASK) + (b[j++] & DIST_MASK);
+                if (dist < best) {
+                    best = dist;
+                    hub = rankV;
+                }
+            }
+        }
+        if (hub == -1) return SAP.pack(-1, -1);
+        return SAP.pack(best, hub(hub));
+    }
+
+    /**
+     * Returns the vertex of a hub rank.
+     *
+     * @param rank the hub rank
+     * @return the vertex of the hub
+     */
+    private int hub(int rank) {
+        return rank < hubs.length ? hubs[rank] : addedHubs[rank - hubs.length];
+    }
+
+    /**
+     * Returns the label of a vertex if it changed since the index was built.
+     *
+     * @param changed the changed labels; null if none changed
+     * @param v       the vertex
+     * @return the label of v; null if it did not change
+     */
+    private static int[] changed(LabelTable changed, int v) {
+        return changed != null ? changed.get(v) : null;
+    }
+
+    /**
+     * Returns the current label of a vertex, which the caller must not modify.
+     *
+     * @param changed the changed labels; null if none changed
+     * @param v       the vertex
+     * @return the label entries of v, sorted by rank
+     */
+    private int[] label(LabelTable changed, int v) {
+        int[] label = changed(changed, v);
+        if (label != null) return label;
+        if (v >= hubs.length) return new int[0];
+        return Arrays.copyOfRange(labels, offsets[v], offsets[v + 1]);
+    }
+
+    /**
+     * Indexes a vertex just added to the digraph, with no edges yet. The vertex becomes the hub of
+     * the next rank.
+     *
+     * @param v the new vertex
+     * @return false if the index cannot hold another vertex
+     */
+    boolean addVertex(int v) {
+        int added = addedCount;
+        int rank = hubs.length + added;
+        if (rank + 1 >= 1 << (Integer.SIZE - 1 - DIST_BITS)) return false;
+        if (added == addedHubs.length) {
+            addedHubs = Arrays.copyOf(addedHubs, Math.max(16, 2 * added));
+        }
+        addedHubs[added] = v;
+        addedCount = added + 1;
+        LabelTable.Edit next = editable();
+        next.set(v, new int[] { rank << DIST_BITS });
+        updated = next.publish();
+        V = v + 1;
+        return true;
+    }
+
+    /**
+     * Updates the labels for an edge v-&gt;w just added to the digraph. Every hub in the label of
+     * w can now reach the descendants of v through the new edge, so its pruned BFS resumes from v.
+     *
+     * @param v the tail of the edge
+     * @param w the head of the edge
+     * @param G the digraph, which already holds the edge
+     * @return false if a distance became too large for the index
+     */
+    boolean addEdge(int v, int w, DynamicDigraph G) {
+        LabelTable.Edit next = editable();
+        for (int entry : label(next, w)) {
+            if (!resume(next, entry >>> DIST_BITS, v, (entry & DIST_MASK) + 1, G)) return false;
+        }
+        updated = next.publish();  // Publish every changed label at once
+        E++;
+        return true;
+    }
+
+    /**
+     * Resumes the pruned BFS of a hub from a vertex, adding the hub to the labels of the vertices
+     * it now reaches by a shorter path than the labels of the hub and of the hubs ranked before it
+     * cover. As in {@link #build}, hubs ranked after it never prune it: their entries may be stale
+     * or pruned against this hub, so they cannot stand in for it.
+     * <p>
+     * Like the BFS of {@link #build}, it runs on primitive arrays kept from one update to the
+     * next: a vertex counts as reached only if its mark equals the stamp of the current BFS, so
+     * the marks are never cleared, and a vertex enters the queue at most once.
+     *
+     * @param changed the changed labels of the update, which receive the new entries
+     * @param rank    the hub rank
+     * @param start   the vertex to resume from
+     * @param dist    the distance from start to the hub
+     * @param G       the digraph
+     * @return false if a distance became too large for the index
+     */
+    private boolean resume(LabelTable.Edit changed, int rank, int start, int dist,
+                           DynamicDigraph G) {
+        int hub = hub(rank);
+        CSRDigraph reverse = G.baseReverse();
+        AtomicReferenceArray<int[]> addedReverse = G.addedReverse();
+        int n = G.V();
+        if (marked.length < n) {
+            int length = n + n / 8 + 16;
+            queue = new int[length];
+            distTo = new int[length];
+            marked = new int[length];
+            stamp = 0;
+        }
+        if (stamp == Integer.MAX_VALUE) {
+            // Out of stamps: clear the marks once and start counting again
+            Arrays.fill(marked, 0);
+            stamp = 0;
+        }
+        stamp++;
+
+        int head = 0, tail = 0;
+        queue[tail++] = start;
+        distTo[start] = dist;
+        marked[start] = stamp;
+        while (head < tail) {
+            int v = queue[head++];
+            int d = distTo[v];
+            int covered = SAP.length(query(changed, v, hub, rank));
+            if (covered != -1 && covered <= d) continue;
+            if (d > DIST_MASK) return false;
+            changed.set(v, withEntry(label(changed, v), rank << DIST_BITS | d));
+
+            if (v < reverse.V()) {
+                for (int i = reverse.offset(v); i < reverse.offset(v + 1); i++) {
+                    tail = reach(reverse.target(i), d + 1, tail);
+                }
+            }
+            int[] children = addedReverse == null ? null : addedReverse.get(v);
+            if (children != null) {
+                for (int u : children) tail = reach(u, d + 1, tail);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Queues a vertex reached by the resumed BFS, if it was not reached yet.
+     *
+     * @param u    the vertex
+     * @param dist the distance of the vertex to the hub
+     * @param tail the end of the queue
+     * @return the new end of the queue
+     */
+    private int reach(int u, int dist, int tail) {
+        if (marked[u] == stamp) return tail;
+        marked[u] = stamp;
+        distTo[u] = dist;
+        queue[tail] = u;
+        return tail + 1;
+    }
+
+    /**
+     * Returns a copy of a label with an entry added, or with the entry of the same hub replaced.
+     *
+     * @param label the label, sorted by rank
+     * @param entry the entry
+     * @return the new label, sorted by rank
+     */
+    private static int[] withEntry(int[] label, int entry) {
+        int rank = entry >>> DIST_BITS;
+        int i = 0;
+        while (i < label.length && label[i] >>> DIST_BITS < rank) i++;
+        if (i < label.length && label[i] >>> DIST_BITS == rank) {
+            int[] copy = label.clone();
+            copy[i] = entry;
+            return copy;
+        }
+        int[] copy = new int[label.length + 1];
+        System.arraycopy(label, 0, copy, 0, i);
+        copy[i] = entry;
+        System.arraycopy(label, i, copy, i + 1, label.length - i);
+        return copy;
+    }
+
+    /**
+     * Returns an edit of the table of changed labels for an update to work on. The published
+     * table is never modified, so queries can read it while the update runs.
+     *
+     * @return the edit of the table
+     */
+    private LabelTable.Edit editable() {
+        LabelTable current = updated;
+        return (current == null ? new LabelTable() : current).edit();
+    }
+
+    /**
+     * A persistent table of labels by vertex: a trie of three levels of fixed-size blocks, with
+     * the labels in the blocks of the last level. An edit clones each block on the way to a label
+     * it changes the first time it changes one, and shares every other block with the table it
+     * started from.
+     */
+    private static class LabelTable {
+        private static final int BITS = 8;  // Bits of a vertex that pick a slot at each level
+        private static final int SLOTS = 1 << BITS;
+        private static final int MASK = SLOTS - 1;
+
+        final int[][][][] root;
+
+        /**
+         * Initializes an empty table.
+         */
+        LabelTable() {
+            this(new int[SLOTS][][][]);
+        }
+
+        /**
+         * Initializes a table from its root block.
+         *
+         * @param root the root block
+         */
+        LabelTable(int[][][][] root) {
+            this.root = root;
+        }
+
+        /**
+         * Returns the label of a vertex.
+         *
+         * @param v the vertex
+         * @return the label of v; null if it is not in the table
+         */
+        int[] get(int v) {
+            int[][][] middle = root[v >>> 2 * BITS];
+            if (middle == null) return null;
+            int[][] leaf = middle[v >>> BITS & MASK];
+            return leaf == null ? null : leaf[v & MASK];
+        }
+
+        /**
+         * Returns the number of bytes taken by the blocks and labels of the table, counting a
+         * reference as four bytes.
+         *
+         * @return the size of the table in bytes
+         */
+        long bytes() {
+            long bytes = (long) Integer.BYTES * SLOTS;
+            for (int[][][] middle : root) {
+                if (middle == null) continue;
+                bytes += (long) Integer.BYTES * SLOTS;
+                for (int[][] leaf : middle) {
+                    if (leaf == null) continue;
+                    bytes += (long) Integer.BYTES * SLOTS;
+                    for (int[] label : leaf) {
+                        if (label != null) bytes += (long) Integer.BYTES * label.length;
+                    }
+                }
+            }
+            return bytes;
+        }
+
+        /**
+         * Starts an edit of the table, which leaves the table itself unchanged.
+         *
+         * @return the edit
+         */
+        Edit edit() {
+            return new Edit(root.clone());
+        }
+
+        /**
+         * A copy of a table that labels can be set in, until it is published.
+         */
+        static class Edit extends LabelTable {
+            private final boolean[] ownMiddle = new boolean[SLOTS];  // Blocks cloned by this edit
+            private final Set<Integer> ownLeaves = new HashSet<>();
+
+            /**
+             * Initializes an edit from a clone of the root block of a table.
+             *
+             * @param root the clone of the root block
+             */
+            Edit(int[][][][] root) {
+                super(root);
+            }
+
+            /**
+             * Sets the label of a vertex.
+             *
+             * @param v     the vertex
+             * @param label the label, which must not be modified afterwards
+             */
+            void set(int v, int[] label) {
+                int i = v >>> 2 * BITS, j = v >>> BITS & MASK;
+                int[][][] middle = root[i];
+                if (!ownMiddle[i]) {
+                    middle = middle == null ? new int[SLOTS][][] : middle.clone();
+                    root[i] = middle;
+                    ownMiddle[i] = true;
+                }
+                int[][] leaf = middle[j];
+                if (ownLeaves.add(v >>> BITS)) {
+                    leaf = leaf == null ? new int[SLOTS][] : leaf.clone();
+                    middle[j] = leaf;
+                }
+                leaf[v & MASK] = label;
+            }
+
+            /**
+             * Returns the table with the labels set so far. The edit must not be used afterwards.
+             *
+             * @return the new table
+             */
+            LabelTable publish() {
+                return new LabelTable(root);
+            }
+        }
+    }
+
+    /**
+     * Returns the shortest ancestral path between any vertex in v and any vertex in w, packed like
+     * {@link SAP#query}.
+     *
+     * @param v the first iterable of vertices
+     * @param w the second iterable of vertices
+     * @return the packed length and ancestor; length and ancestor are -1 if no such path
+     */
+    long query(Iterable<Integer> v, Iterable<Integer> w) {
+        long best = SAP.pack(-1, -1);
+        for (int vertexV : v) {
+            for (int vertexW : w) {
+                long result = query(vertexV, vertexW);
+                int length = SAP.length(result);
+                if (length != -1 && (SAP.length(best) == -1 || length < SAP.length(best)))
+                    best = result;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the number of label entries in the index.
+     *
+     * @return the number of label entries
+     */
+    public int size() {
+        LabelTable changed = updated;
+        if (changed == null) return labels.length;
+        int size = 0;
+        for (int v = 0; v < V; v++) size += labelSize(changed, v);
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes taken by the arrays of the index: the built ones, the hubs added
+     * since, and the blocks and labels of the table of changed labels, counting a reference as
+     * four bytes, as with compressed references.
+     *
+     * @return the size of the index in bytes
+     */
+    public long bytes() {
+        LabelTable changed = updated;
+        return (long) Integer.BYTES * (hubs.length + offsets.length + labels.length
+                                       + addedHubs.length)
+                + (changed == null ? 0 : changed.bytes());
+    }
+
+    /**
+     * Returns the time it took to build the index, or to load it if it was loaded from a file.
+     *
+     * @return the build or load time in milliseconds
+     */
+    public long buildMillis() {
+        return buildMillis;
+    }
+
+    /**
+     * Unit testing of this class.
+     *
+     * @param args command-line arguments
+     */
+    public static void main(String[] args) {
+        In in = new In(args[0]);
+        Digraph G = new Digraph(in);
+        SAPIndex index = SAPIndex.build(G);
+        StdOut.printf("built in %d ms: %d labels, %d bytes\n",
+                      index.buildMillis(), index.size(), index.bytes());
+        if (args.length > 1) {
+            index.save(args[1]);
+            SAPIndex loaded = SAPIndex.load(args[1]);
+            StdOut.printf("loaded in %d ms: %d labels\n", loaded.buildMillis(), loaded.size());
+        }
+        long result = index.query(2, 4);
+        StdOut.printf("length = %d, ancestor = %d\n", SAP.length(result), SAP.ancestor(result));
+    }
+}
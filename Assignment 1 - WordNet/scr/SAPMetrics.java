@@ -0,0 +1,255 @@
+import edu.princeton.cs.algs4.StdOut;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The SAPMetrics class aggregates per-query measurements of a {@link SAP} and of the
+ * {@link WordNet} around it into lock-free {@link Histogram}s, and can publish them over JMX.
+ * <p>
+ * Each search records its time, the vertices it dequeued, the edges it scanned and the largest
+ * frontier it expanded, so a slow query can be told apart as a large search rather than, say, a
+ * pause. Each noun query of a WordNet also records its time end to end, cache lookups included.
+ * <p>
+ * The searches count their work in local variables whether metrics are on or not, and hand the
+ * counts over only when they are, so a SAP without metrics pays one field read per query.
+ */
+public class SAPMetrics implements SAPMetricsMBean {
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    private final Histogram searchNanos = new Histogram();
+    private final Histogram requestNanos = new Histogram();
+    private final Histogram dequeued = new Histogram();
+    private final Histogram edgesScanned = new Histogram();
+    private final Histogram frontier = new Histogram();
+    private volatile long slowestNanos = -1;  // Time of the slowest search so far
+    private volatile String slowest = "";     // Description of the slowest search so far
+    private ObjectName name;                  // Name under which the metrics are registered
+
+    /**
+     * Records one search.
+     *
+     * @param nanos       the time of the search in nanoseconds
+     * @param vertices    the number of vertices dequeued
+     * @param edges       the number of edges scanned
+     * @param maxFrontier the number of vertices in the largest frontier expanded
+     */
+    void recordSearch(long nanos, int vertices, int edges, int maxFrontier) {
+        searchNanos.record(nanos);
+        dequeued.record(vertices);
+        edgesScanned.record(edges);
+        frontier.record(maxFrontier);
+        if (nanos > slowestNanos) {
+            synchronized (this) {
+                if (nanos > slowestNanos) {
+                    slowestNanos = nanos;
+                    slowest = String.format("%.1f us, %d vertices dequeued, %d edges scanned, "
+                                            + "frontier of %d", nanos / NANOS_PER_MICRO, vertices,
+                                            edges, maxFrontier);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records one noun query of a WordNet.
+     *
+     * @param nanos the time of the query in nanoseconds
+     */
+    void recordRequest(long nanos) {
+        requestNanos.record(nanos);
+    }
+
+    /**
+     * Returns the histogram of the times of the searches, in nanoseconds.
+     *
+     * @return the histogram of search times
+     */
+    public Histogram searchNanos() {
+        return searchNanos;
+    }
+
+    /**
+     * Returns the histogram of the times of the noun queries, in nanoseconds.
+     *
+     * @return the histogram of noun query times
+     */
+    public Histogram requestNanos() {
+        return requestNanos;
+    }
+
+    /**
+     * Returns the histogram of the number of vertices dequeued by each search.
+     *
+     * @return the histogram of vertices dequeued
+     */
+    public Histogram dequeued() {
+        return dequeued;
+    }
+
+    /**
+     * Returns the histogram of the number of edges scanned by each search.
+     *
+     * @return the histogram of edges scanned
+     */
+    public Histogram edgesScanned() {
+        return edgesScanned;
+    }
+
+    /**
+     * Returns the histogram of the largest frontier expanded by each search.
+     *
+     * @return the histogram of frontier sizes
+     */
+    public Histogram frontier() {
+        return frontier;
+    }
+
+    @Override
+    public long getSearches() {
+        return searchNanos.count();
+    }
+
+    @Override
+    public long getRequests() {
+        return requestNanos.count();
+    }
+
+    @Override
+    public double getSearchP50Micros() {
+        return searchNanos.percentile(0.5) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getSearchP99Micros() {
+        return searchNanos.percentile(0.99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getSearchMaxMicros() {
+        return searchNanos.max() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getRequestP50Micros() {
+        return requestNanos.percentile(0.5) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getRequestP99Micros() {
+        return requestNanos.percentile(0.99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getDequeuedMean() {
+        return dequeued.mean();
+    }
+
+    @Override
+    public long getDequeuedP99() {
+        return dequeued.percentile(0.99);
+    }
+
+    @Override
+    public double getEdgesScannedMean() {
+        return edgesScanned.mean();
+    }
+
+    @Override
+    public long getEdgesScannedP99() {
+        return edgesScanned.percentile(0.99);
+    }
+
+    @Override
+    public long getFrontierMax() {
+        return frontier.max();
+    }
+
+    @Override
+    public String getSlowestSearch() {
+        return slowest;
+    }
+
+    @Override
+    public synchronized void reset() {
+        searchNanos.reset();
+        requestNanos.reset();
+        dequeued.reset();
+        edgesScanned.reset();
+        frontier.reset();
+        slowestNanos = -1;
+        slowest = "";
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, under the name
+     * {@code SAP:type=SAPMetrics,name=<name>}.
+     *
+     * @param name the name that tells these metrics apart from others
+     * @throws IllegalArgumentException if the name is null or not a valid JMX name
+     * @throws IllegalStateException    if the metrics are already registered
+     */
+    public synchronized void register(String name) {
+        if (name == null) throw new IllegalArgumentException();
+        if (this.name != null) throw new IllegalStateException();
+        try {
+            ObjectName objectName = new ObjectName("SAP:type=SAPMetrics,name="
+                                                   + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.name = objectName;
+        }
+        catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server, if they are registered.
+     */
+    public synchronized void unregister() {
+        if (name == null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(name);
+        }
+        catch (JMException e) {
+            // Already unregistered by someone else
+        }
+        name = null;
+    }
+
+    /**
+     * Unit testing of this class: runs random noun queries with metrics on and prints them.
+     *
+     * @param args the synsets file, the hypernyms file and, optionally, the number of queries
+     */
+    public static void main(String[] args) {
+        WordNet wordnet = new WordNet(args[0], args[1]);
+        SAPMetrics metrics = new SAPMetrics();
+        wordnet.setMetrics(metrics);
+        metrics.register("main");
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+        List<String> nouns = new ArrayList<>();
+        for (String noun : wordnet.nouns()) nouns.add(noun);
+        Random random = new Random(0);
+        for (int i = 0; i < queries; i++) {
+            wordnet.distance(nouns.get(random.nextInt(nouns.size())),
+                             nouns.get(random.nextInt(nouns.size())));
+        }
+
+        StdOut.printf("%d searches: p50 = %.1f us, p99 = %.1f us, max = %.1f us\n",
+                      metrics.getSearches(), metrics.getSearchP50Micros(),
+                      metrics.getSearchP99Micros(), metrics.getSearchMaxMicros());
+        StdOut.printf("dequeued: mean = %.1f, p99 = %d; edges: mean = %.1f, p99 = %d\n",
+                      metrics.getDequeuedMean(), metrics.getDequeuedP99(),
+                      metrics.getEdgesScannedMean(), metrics.getEdgesScannedP99());
+        StdOut.println("slowest: " + metrics.getSlowestSearch());
+        metrics.unregister();
+    }
+}
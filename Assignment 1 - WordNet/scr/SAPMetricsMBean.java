@@ -0,0 +1,101 @@
+/**
+ * The SAPMetricsMBean interface is the JMX view of a {@link SAPMetrics}: every getter is an
+ * attribute that a JMX console such as JConsole or VisualVM can read or chart.
+ */
+public interface SAPMetricsMBean {
+    /**
+     * Returns the number of searches recorded.
+     *
+     * @return the number of searches
+     */
+    long getSearches();
+
+    /**
+     * Returns the number of noun queries recorded, including those answered by the cache.
+     *
+     * @return the number of noun queries
+     */
+    long getRequests();
+
+    /**
+     * Returns the median time of a search.
+     *
+     * @return the median search time in microseconds
+     */
+    double getSearchP50Micros();
+
+    /**
+     * Returns the 99th percentile of the time of a search.
+     *
+     * @return the 99th percentile search time in microseconds
+     */
+    double getSearchP99Micros();
+
+    /**
+     * Returns the longest time of a search.
+     *
+     * @return the longest search time in microseconds
+     */
+    double getSearchMaxMicros();
+
+    /**
+     * Returns the median time of a noun query, including lookups and the cache.
+     *
+     * @return the median noun query time in microseconds
+     */
+    double getRequestP50Micros();
+
+    /**
+     * Returns the 99th percentile of the time of a noun query, including lookups and the cache.
+     *
+     * @return the 99th percentile noun query time in microseconds
+     */
+    double getRequestP99Micros();
+
+    /**
+     * Returns the mean number of vertices a search dequeued.
+     *
+     * @return the mean number of vertices dequeued
+     */
+    double getDequeuedMean();
+
+    /**
+     * Returns the 99th percentile of the number of vertices a search dequeued.
+     *
+     * @return the 99th percentile number of vertices dequeued
+     */
+    long getDequeuedP99();
+
+    /**
+     * Returns the mean number of edges a search scanned.
+     *
+     * @return the mean number of edges scanned
+     */
+    double getEdgesScannedMean();
+
+    /**
+     * Returns the 99th percentile of the number of edges a search scanned.
+     *
+     * @return the 99th percentile number of edges scanned
+     */
+    long getEdgesScannedP99();
+
+    /**
+     * Returns the largest frontier, in vertices, that any search expanded at once.
+     *
+     * @return the largest frontier
+     */
+    long getFrontierMax();
+
+    /**
+     * Returns a description of the slowest search: its time, vertices, edges and frontier.
+     *
+     * @return the description of the slowest search; empty if no search was recorded
+     */
+    String getSlowestSearch();
+
+    /**
+     * Removes every recorded value.
+     */
+    void reset();
+}
@@ -1,9 +1,8 @@
-import edu.princeton.cs.algs4.Digraph;
-import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdOut;
-import edu.princeton.cs.algs4.Topological;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,12 +10,17 @@ import java.util.Map;
 /**
  * The WordNet class provides a data type for semantic lexicons.
  * It handles the structure and operations related to WordNet synsets and hypernyms.
+ * <p>
+ * A single instance can answer queries from many threads at once. New synsets and hypernyms can
+ * be added while it does, without rebuilding anything: each update checks only the part of the
+ * graph it touches, and invalidates in the cache only the results it may have changed. Updates are
+ * applied one at a time, and a query running during an update sees WordNet either before or after
+ * it.
  */
 public class WordNet {
-    // Maps to store the associations between nouns and vertices
-    private final Map<String, List<Integer>> nounToVertex;
-    private final Map<Integer, String> vertexToNoun;
+    private volatile NounIndex dictionary;  // Associations between nouns and vertices
     private final SAP sap;
+    private final SAPCache cache;  // Results of previous queries; null if caching is off
 
     /**
      * Constructor that takes the names of the two input files.
@@ -26,54 +30,99 @@ public class WordNet {
      * @throws IllegalArgumentException if any of the arguments are null
      */
     public WordNet(String synsets, String hypernyms) {
+        this(synsets, hypernyms, null);
+    }
+
+    /**
+     * Constructor that takes the names of the two input files and a cache for the results of
+     * {@link #distance} and {@link #sap}.
+     *
+     * @param synsets   the name of the synsets file
+     * @param hypernyms the name of the hypernyms file
+     * @param cache     the cache of query results; null to disable caching
+     * @throws IllegalArgumentException if any of the file names are null
+     */
+    public WordNet(String synsets, String hypernyms, SAPCache cache) {
         if (synsets == null || hypernyms == null) {
             throw new IllegalArgumentException();
         }
+        this.cache = cache;
 
-        In inSynsets = new In(synsets);
-        nounToVertex = new HashMap<>();
-        vertexToNoun = new HashMap<>();
-
-        // Process the synsets file
-        int numberOfVertices = 0;
-        while (!inSynsets.isEmpty()) {
-            numberOfVertices++;
-            String line = inSynsets.readLine();
-            String[] lineParts = line.split(",");
-            int vertex = Integer.parseInt(lineParts[0]);
-            String[] nouns = lineParts[1].split(" ");
-            for (String noun : nouns) {
-                nounToVertex.computeIfAbsent(noun, ignored -> new ArrayList<>()).add(vertex);
-            }
-            vertexToNoun.put(vertex, lineParts[1]);
-        }
-
-        // Process the hypernyms file
-        In inHypernyms = new In(hypernyms);
-        Digraph digraph = new Digraph(numberOfVertices);
-        while (!inHypernyms.isEmpty()) {
-            String line = inHypernyms.readLine();
-            String[] lineParts = line.split(",");
-            int v = Integer.parseInt(lineParts[0]);
-            for (int i = 1; i < lineParts.length; i++) {
-                int w = Integer.parseInt(lineParts[i]);
-                digraph.addEdge(v, w);
-            }
-        }
+        // Parse both files straight from their bytes
+        WordNetParser parser = new WordNetParser(synsets, hypernyms);
+        dictionary = parser.dictionary();
+        CSRDigraph digraph = parser.digraph();
 
         // Check for cycles and ensure the graph is rooted
-        Topological topological = new Topological(digraph);
-        if (!topological.hasOrder() || !isRooted(digraph)) throw new IllegalArgumentException();
+        if (!digraph.isDAG() || !isRooted(digraph)) throw new IllegalArgumentException();
         sap = new SAP(digraph);
     }
 
+    /**
+     * Initializes a WordNet from an already validated dictionary and hypernym digraph.
+     *
+     * @param dictionary the associations between nouns and vertices
+     * @param digraph    the hypernym digraph, known to be a rooted DAG
+     * @param cache      the cache of query results; null to disable caching
+     */
+    private WordNet(NounIndex dictionary, CSRDigraph digraph, SAPCache cache) {
+        this.dictionary = dictionary;
+        this.sap = new SAP(digraph);
+        this.cache = cache;
+    }
+
+    /**
+     * Loads a WordNet from a snapshot written by {@link #saveSnapshot}, without caching.
+     *
+     * @param snapshot the name of the snapshot file
+     * @return the WordNet stored in the snapshot
+     * @throws IllegalArgumentException if the file name is null or the file is not a snapshot
+     */
+    public static WordNet loadSnapshot(String snapshot) {
+        return loadSnapshot(snapshot, null);
+    }
+
+    /**
+     * Loads a WordNet from a snapshot written by {@link #saveSnapshot}.
+     * <p>
+     * The dictionary is read in place from the memory-mapped snapshot instead of being parsed and
+     * copied into the heap, so loading is much faster than parsing the text files. Processes that
+     * load the same snapshot share its pages. The hypernym digraph is checked like a parsed one,
+     * so a stale snapshot cannot bring in a cycle or a second root.
+     *
+     * @param snapshot the name of the snapshot file
+     * @param cache    the cache of query results; null to disable caching
+     * @return the WordNet stored in the snapshot
+     * @throws IllegalArgumentException if the file name is null, the file is not a snapshot, or
+     *                                  its digraph is not a rooted DAG
+     */
+    public static WordNet loadSnapshot(String snapshot, SAPCache cache) {
+        WordNetSnapshot mapped = WordNetSnapshot.map(snapshot);
+        CSRDigraph digraph = mapped.digraph();
+        if (!digraph.isDAG() || !isRooted(digraph)) throw new IllegalArgumentException();
+        return new WordNet(mapped, digraph, cache);
+    }
+
+    /**
+     * Writes the dictionary and the hypernym digraph to a binary snapshot, which
+     * {@link #loadSnapshot} can load without parsing the text files. It holds the same lock as
+     * {@link #addSynset} and {@link #addHypernym}, so the dictionary and the digraph it writes
+     * are from the same version.
+     *
+     * @param snapshot the name of the snapshot file
+     * @throws IllegalArgumentException if the file name is null
+     */
+    public synchronized void saveSnapshot(String snapshot) {
+        WordNetSnapshot.write(snapshot, dictionary, sap.digraph());
+    }
+
     /**
      * Checks if the digraph is rooted.
      *
      * @param digraph the digraph to check
      * @return true if the digraph is rooted, false otherwise
      */
-    private boolean isRooted(Digraph digraph) {
+    private static boolean isRooted(CSRDigraph digraph) {
         int roots = 0;
         for (int i = 0; i < digraph.V(); i++) {
             if (digraph.outdegree(i) == 0) roots++;
@@ -81,13 +130,88 @@ public class WordNet {
         return roots == 1;
     }
 
+    /**
+     * Adds a synset with the given hypernyms. Its nouns can be queried as soon as this returns.
+     * <p>
+     * A new synset cannot close a cycle and, having a hypernym, keeps the graph rooted, so nothing
+     * needs to be checked beyond the arguments, and no cached result changes.
+     *
+     * @param nouns     the nouns of the synset, separated by spaces
+     * @param hypernyms the synset ids of its hypernyms
+     * @return the synset id of the new synset
+     * @throws IllegalArgumentException if the nouns are null or blank, or if there is no hypernym
+     *                                  or any of them is not a synset
+     */
+    public synchronized int addSynset(String nouns, int... hypernyms) {
+        if (nouns == null || nouns.isBlank() || nouns.indexOf(',') != -1 || hypernyms == null
+                || hypernyms.length == 0) {
+            throw new IllegalArgumentException();
+        }
+        for (int hypernym : hypernyms) {
+            if (hypernym < 0 || hypernym >= sap.V()) throw new IllegalArgumentException();
+        }
+
+        int synset = sap.addVertex();
+        for (int hypernym : hypernyms) sap.addEdge(synset, hypernym);
+        overlay().add(synset, nouns);
+        return synset;
+    }
+
+    /**
+     * Adds a hypernym to an existing synset.
+     * <p>
+     * The edge would close a cycle only if the synset is already an ancestor of the hypernym, so
+     * the check searches the ancestors of the hypernym rather than the whole graph. The graph stays
+     * rooted, since the root, having no hypernym, is an ancestor of every synset and would close a
+     * cycle. Only the cached results that involve the synset or one of its hyponyms are
+     * invalidated.
+     *
+     * @param synset   the synset id of the hyponym
+     * @param hypernym the synset id of the hypernym
+     * @throws IllegalArgumentException if any of the ids is not a synset, or if the edge would
+     *                                  create a cycle
+     */
+    public synchronized void addHypernym(int synset, int hypernym) {
+        if (synset < 0 || synset >= sap.V() || hypernym < 0 || hypernym >= sap.V()) {
+            throw new IllegalArgumentException();
+        }
+        if (sap.hasPath(hypernym, synset)) throw new IllegalArgumentException();
+
+        sap.addEdge(synset, hypernym);
+        if (cache != null) cache.invalidate(sap.descendants(synset));
+    }
+
+    /**
+     * Returns the dictionary as one that synsets can be added to, wrapping it on first use.
+     *
+     * @return the dictionary
+     */
+    private OverlayNounIndex overlay() {
+        if (!(dictionary instanceof OverlayNounIndex)) {
+            dictionary = new OverlayNounIndex(dictionary);
+        }
+        return (OverlayNounIndex) dictionary;
+    }
+
+    /**
+     * Returns the synset ids of a noun, for instance to add a hyponym to one of them.
+     *
+     * @param noun the noun
+     * @return the synset ids of the noun
+     * @throws IllegalArgumentException if the noun is not a WordNet noun
+     */
+    public List<Integer> synsets(String noun) {
+        if (!isNoun(noun)) throw new IllegalArgumentException();
+        return Collections.unmodifiableList(dictionary.vertices(noun));
+    }
+
     /**
      * Returns all WordNet nouns.
      *
      * @return an iterable of all WordNet nouns
      */
     public Iterable<String> nouns() {
-        return nounToVertex.keySet();
+        return dictionary.nouns();
     }
 
     /**
@@ -99,7 +223,7 @@ public class WordNet {
      */
     public boolean isNoun(String word) {
         if (word == null) throw new IllegalArgumentException();
-        return nounToVertex.containsKey(word);
+        return dictionary.contains(word);
     }
 
     /**
@@ -111,13 +235,16 @@ public class WordNet {
      * @throws IllegalArgumentException if either noun is not a WordNet noun
      */
     public int distance(String nounA, String nounB) {
+        SAPMetrics metrics = sap.metrics();
+        long start = metrics == null ? 0 : System.nanoTime();
         if (!isNoun(nounA) || !isNoun(nounB)) {
             throw new IllegalArgumentException();
         }
-        List<Integer> v = nounToVertex.get(nounA);
-        List<Integer> w = nounToVertex.get(nounB);
-        int dist = sap.length(v, w);
-        return dist;
+        List<Integer> v = dictionary.vertices(nounA);
+        List<Integer> w = dictionary.vertices(nounB);
+        int length = SAP.length(query(v, w));
+        if (metrics != null) metrics.recordRequest(System.nanoTime() - start);
+        return length;
     }
 
     /**
@@ -129,13 +256,206 @@ public class WordNet {
      * @throws IllegalArgumentException if either noun is not a WordNet noun
      */
     public String sap(String nounA, String nounB) {
+        SAPMetrics metrics = sap.metrics();
+        long start = metrics == null ? 0 : System.nanoTime();
         if (!isNoun(nounA) || !isNoun(nounB)) {
             throw new IllegalArgumentException();
         }
-        List<Integer> v = nounToVertex.get(nounA);
-        List<Integer> w = nounToVertex.get(nounB);
-        int sca = sap.ancestor(v, w);
-        return vertexToNoun.get(sca);
+        List<Integer> v = dictionary.vertices(nounA);
+        List<Integer> w = dictionary.vertices(nounB);
+        String synset = dictionary.synset(SAP.ancestor(query(v, w)));
+        if (metrics != null) metrics.recordRequest(System.nanoTime() - start);
+        return synset;
+    }
+
+    /**
+     * Calculates the distance between one noun and each of the given nouns, for instance to rank
+     * candidates by their distance to the noun.
+     * <p>
+     * The synsets of up to 64 nouns are searched together in one bit-parallel pass over the graph,
+     * so this is much cheaper than calling {@link #distance} for each noun. The cache is bypassed.
+     *
+     * @param noun  the noun
+     * @param nouns the nouns to measure the distance to
+     * @return an array whose entry [i] is the distance between the noun and nouns i
+     * @throws IllegalArgumentException if any of the arguments are null or any of the nouns is not
+     *                                  a WordNet noun
+     */
+    public int[] distances(String noun, String[] nouns) {
+        long[] results = query(noun, nouns);
+        int[] distances = new int[results.length];
+        for (int i = 0; i < results.length; i++) distances[i] = SAP.length(results[i]);
+        return distances;
+    }
+
+    /**
+     * Finds the common ancestor of one noun and each of the given nouns in their shortest
+     * ancestral paths, searched like {@link #distances}.
+     *
+     * @param noun  the noun
+     * @param nouns the other nouns
+     * @return an array whose entry [i] is the synset that is the common ancestor of the noun and
+     * nouns i
+     * @throws IllegalArgumentException if any of the arguments are null or any of the nouns is not
+     *                                  a WordNet noun
+     */
+    public String[] saps(String noun, String[] nouns) {
+        long[] results = query(noun, nouns);
+        String[] saps = new String[results.length];
+        for (int i = 0; i < results.length; i++) {
+            saps[i] = dictionary.synset(SAP.ancestor(results[i]));
+        }
+        return saps;
+    }
+
+    /**
+     * Runs the queries between the synsets of one noun and the synsets of each of many nouns.
+     *
+     * @param noun  the noun
+     * @param nouns the other nouns
+     * @return the packed result of each query
+     */
+    private long[] query(String noun, String[] nouns) {
+        if (!isNoun(noun) || nouns == null) throw new IllegalArgumentException();
+        List<List<Integer>> synsets = new ArrayList<>(nouns.length);
+        for (String other : nouns) {
+            if (!isNoun(other)) throw new IllegalArgumentException();
+            synsets.add(dictionary.vertices(other));
+        }
+        return sap.queryEach(dictionary.vertices(noun), synsets);
+    }
+
+    /**
+     * Finds the k nouns closest to a noun by distance, for instance to expand a query.
+     * <p>
+     * The search goes up from the synsets of the noun to their ancestors and back down to their
+     * hyponyms, one distance at a time, and stops after the first distance at which k nouns have
+     * been found, so it only covers the neighborhood of the noun. Nouns at the same distance are
+     * ordered alphabetically, which decides the ties at the last distance. The hyponym edges are
+     * indexed the first time any search needs them.
+     *
+     * @param noun the noun
+     * @param k    the number of nouns to find
+     * @return up to k nouns other than the noun itself, by increasing distance to it
+     * @throws IllegalArgumentException if the noun is not a WordNet noun or k is negative
+     */
+    public List<String> nearest(String noun, int k) {
+        if (!isNoun(noun) || k < 0) throw new IllegalArgumentException();
+        if (k == 0) return new ArrayList<>();
+
+        NounIndex nouns = dictionary;
+        Map<String, Integer> found = new HashMap<>();
+        sap.nearest(nouns.vertices(noun), (vertex, length) -> {
+            String synset = nouns.synset(vertex);
+            if (synset != null) {
+                for (String other : synset.split(" ")) {
+                    if (!other.isEmpty() && !other.equals(noun)) found.putIfAbsent(other, length);
+                }
+            }
+            return found.size() < k;
+        });
+
+        List<String> nearest = new ArrayList<>(found.keySet());
+        nearest.sort(Comparator.comparing((String other) -> found.get(other))
+                               .thenComparing(Comparator.naturalOrder()));
+        return nearest.size() > k ? new ArrayList<>(nearest.subList(0, k)) : nearest;
+    }
+
+    /**
+     * Calculates the distance between every two of the given nouns.
+     * <p>
+     * This searches the ancestors of each noun once, instead of once per pair, so it is much
+     * cheaper than calling {@link #distance} for every pair.
+     *
+     * @param nouns the nouns
+     * @return a symmetric matrix whose entry [i][j] is the distance between nouns i and j
+     * @throws IllegalArgumentException if the array is null or any of the nouns is not a WordNet
+     *                                  noun
+     */
+    public int[][] distanceMatrix(String[] nouns) {
+        return distanceMatrix(nouns, false);
+    }
+
+    /**
+     * Calculates the distance between every two of the given nouns, optionally spreading the work
+     * across all cores.
+     *
+     * @param nouns    the nouns
+     * @param parallel true to compute the matrix in parallel
+     * @return a symmetric matrix whose entry [i][j] is the distance between nouns i and j
+     * @throws IllegalArgumentException if the array is null or any of the nouns is not a WordNet
+     *                                  noun
+     */
+    public int[][] distanceMatrix(String[] nouns, boolean parallel) {
+        if (nouns == null) throw new IllegalArgumentException();
+        List<List<Integer>> synsets = new ArrayList<>(nouns.length);
+        for (String noun : nouns) {
+            if (!isNoun(noun)) throw new IllegalArgumentException();
+            synsets.add(dictionary.vertices(noun));
+        }
+        return sap.lengthMatrix(synsets, parallel);
+    }
+
+    /**
+     * Runs a query between the synsets of two nouns, through the cache if there is one.
+     *
+     * @param v the synsets of the first noun
+     * @param w the synsets of the second noun
+     * @return the packed result of the query
+     */
+    private long query(List<Integer> v, List<Integer> w) {
+        if (cache == null) return sap.query(v, w);
+        return cache.get(v, w, sap::query);
+    }
+
+    /**
+     * Builds a label index of the hypernym graph, so that later queries are answered by
+     * intersecting labels instead of searching the graph.
+     *
+     * @return the new index, which can be saved with {@link SAPIndex#save}
+     */
+    public SAPIndex buildIndex() {
+        return sap.buildIndex();
+    }
+
+    /**
+     * Answers later queries from an index saved by {@link SAPIndex#save}, instead of rebuilding it.
+     *
+     * @param file the name of the index file
+     * @throws IllegalArgumentException if the file name is null or the index does not match the
+     *                                  hypernym graph
+     */
+    public void loadIndex(String file) {
+        sap.useIndex(SAPIndex.load(file));
+    }
+
+    /**
+     * Makes every later query record its time and the work of its search, or stops recording.
+     * Noun queries also record their time end to end, including cache hits.
+     *
+     * @param metrics where to record the queries, which {@link SAPMetrics#register} can publish
+     *                over JMX; null to stop recording
+     */
+    public void setMetrics(SAPMetrics metrics) {
+        sap.setMetrics(metrics);
+    }
+
+    /**
+     * Returns where the queries record their time and work.
+     *
+     * @return the metrics; null if the queries are not recorded
+     */
+    public SAPMetrics metrics() {
+        return sap.metrics();
+    }
+
+    /**
+     * Returns the cache of query results.
+     *
+     * @return the cache; null if caching is off
+     */
+    public SAPCache cache() {
+        return cache;
     }
 
     /**
@@ -154,7 +474,7 @@ public class WordNet {
         StdOut.println("Word \"" + word2 + "\" is part of Wordnet? " + wordnet.isNoun(word2));
         StdOut.println("Shortest common ancestor: " + wordnet.sap(word1, word2));
         StdOut.println("Distance = " + wordnet.distance(word1, word2));
-        StdOut.println(wordnet.nounToVertex.get(word1));
-        StdOut.println(wordnet.nounToVertex.get(word2));
+        StdOut.println(wordnet.dictionary.vertices(word1));
+        StdOut.println(wordnet.dictionary.vertices(word2));
     }
 }
\ No newline at end of file
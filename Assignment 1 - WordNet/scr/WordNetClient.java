@@ -0,0 +1,206 @@
+import edu.princeton.cs.algs4.StdOut;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * The WordNetClient class queries a {@link WordNetServer} over one connection. Requests are sent
+ * one at a time, so a client must not be shared by threads that query at once; each thread opens
+ * its own.
+ */
+public class WordNetClient implements AutoCloseable {
+    private final Socket socket;
+    private final BufferedReader in;
+    private final BufferedWriter out;
+
+    /**
+     * Connects to a server.
+     *
+     * @param host the host of the server, normally localhost
+     * @param port the port of the server
+     * @throws UncheckedIOException if the server cannot be reached
+     */
+    public WordNetClient(String host, int port) {
+        try {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                                          StandardCharsets.UTF_8));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+                                                            StandardCharsets.UTF_8));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Sends a request and waits for its response.
+     *
+     * @param request the request line
+     * @return the response line
+     * @throws IllegalArgumentException if the server answers with an error
+     * @throws UncheckedIOException     if the connection fails
+     */
+    private String request(String request) {
+        try {
+            out.write(request);
+            out.newLine();
+            out.flush();
+            String response = in.readLine();
+            if (response == null) throw new IOException("connection closed by the server");
+            if (response.startsWith("ERR")) throw new IllegalArgumentException(response);
+            return response;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Checks if a word is a WordNet noun.
+     *
+     * @param word the word to check
+     * @return true if the word is a WordNet noun, false otherwise
+     */
+    public boolean isNoun(String word) {
+        return Boolean.parseBoolean(request("isNoun " + word));
+    }
+
+    /**
+     * Calculates the distance between two nouns.
+     *
+     * @param nounA the first noun
+     * @param nounB the second noun
+     * @return the distance between the two nouns
+     * @throws IllegalArgumentException if either noun is not a WordNet noun
+     */
+    public int distance(String nounA, String nounB) {
+        return Integer.parseInt(request("distance " + nounA + " " + nounB));
+    }
+
+    /**
+     * Finds the common ancestor of two nouns in the shortest ancestral path.
+     *
+     * @param nounA the first noun
+     * @param nounB the second noun
+     * @return the synset that is the common ancestor of the two nouns
+     * @throws IllegalArgumentException if either noun is not a WordNet noun
+     */
+    public String sap(String nounA, String nounB) {
+        return request("sap " + nounA + " " + nounB);
+    }
+
+    /**
+     * Finds the outcast of an array of nouns.
+     *
+     * @param nouns the nouns
+     * @return the outcast noun
+     * @throws IllegalArgumentException if any of the nouns is not a WordNet noun
+     */
+    public String outcast(String[] nouns) {
+        return request("outcast " + String.join(" ", nouns));
+    }
+
+    /**
+     * Returns the statistics of the server.
+     *
+     * @return one line of statistics
+     */
+    public String stats() {
+        return request("stats");
+    }
+
+    /**
+     * Closes the connection.
+     */
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    /**
+     * Load-tests a server: a number of threads, each with its own connection, send distance
+     * requests between nouns of a synsets file, and the client prints the throughput and latency
+     * percentiles it saw, followed by the statistics of the server.
+     * <p>
+     * One noun of each request is drawn from a few hot nouns, on either side at random, and the
+     * other from all the nouns, as when many users query around the same topics. Requests that
+     * meet in a batch then share a search, which the statistics of the server show as fewer
+     * searches than requests batched. With no hot nouns, both nouns are drawn from all of them
+     * and requests almost never share a search.
+     *
+     * @param args the port, the synsets file and, optionally, the number of threads, of requests
+     *             per thread and of hot nouns (8 by default, 0 for none)
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int port = Integer.parseInt(args[0]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int requests = args.length > 3 ? Integer.parseInt(args[3]) : 2500;
+        int hot = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+
+        List<String> nouns = new ArrayList<>();
+        try (Stream<String> lines = Files.lines(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+            lines.forEach(line -> {
+                String[] fields = line.split(",");
+                if (fields.length > 1) nouns.add(fields[1].split(" ")[0]);
+            });
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        int hotNouns = hot > 0 ? Math.min(hot, nouns.size()) : nouns.size();
+        Histogram latency = new Histogram();
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            workers[t] = new Thread(() -> {
+                try (WordNetClient client = new WordNetClient("localhost", port)) {
+                    for (int i = 0; i < requests; i++) {
+                        String nounA = nouns.get(random.nextInt(hotNouns));
+                        String nounB = nouns.get(random.nextInt(nouns.size()));
+                        if (random.nextBoolean()) {
+                            String swap = nounA;
+                            nounA = nounB;
+                            nounB = swap;
+                        }
+                        long sent = System.nanoTime();
+                        client.distance(nounA, nounB);
+                        latency.record(System.nanoTime() - sent);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) worker.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        StdOut.printf("%d requests in %.2f s: %.0f/s, p50 %.1f us, p99 %.1f us, max %.1f us\n",
+                      latency.count(), seconds, latency.count() / seconds,
+                      latency.percentile(0.5) / 1e3, latency.percentile(0.99) / 1e3,
+                      latency.max() / 1e3);
+        try (WordNetClient client = new WordNetClient("localhost", port)) {
+            StdOut.println("server: " + client.stats());
+        }
+    }
+}
@@ -0,0 +1,344 @@
+import edu.princeton.cs.algs4.Digraph;
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.StdOut;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * The WordNetParser class reads the synsets and hypernyms files of a WordNet straight from their
+ * bytes and builds the noun dictionary and the hypernym digraph as it goes.
+ * <p>
+ * Each file is streamed through a buffer of fixed size, which only grows if a single nouns field
+ * does not fit in it, and ids are parsed digit by digit from the buffer. The nouns field is copied
+ * into a {@link CompactNounIndex} straight from its bytes through a reused view, so no string is
+ * created per line; a field with non-ASCII bytes is the exception, and is decoded as UTF-8 first.
+ * Glosses are skipped without being decoded. The edges are collected in flat int arrays and turned
+ * into a {@link CSRDigraph} at the end, with no per-edge objects.
+ */
+class WordNetParser {
+    private final CompactNounIndex dictionary;
+    private final CSRDigraph digraph;
+    private CompactNounIndex.Builder nouns = new CompactNounIndex.Builder();
+    private InputStream in;  // The file being parsed
+    private byte[] buffer = new byte[1 << 16];  // Window of the file being parsed
+    private int pos;         // Position of the next byte to parse in the buffer
+    private int limit;       // End of the bytes read into the buffer
+    private int mark = -1;   // Start of the bytes to keep when the buffer is refilled, or -1
+    private final AsciiChars chars = new AsciiChars();  // View of the nouns field being parsed
+    private int[] tails = new int[1024], heads = new int[1024];  // Edges of the hypernyms file
+    private int edges;      // Number of edges parsed so far
+
+    /**
+     * Parses the two input files.
+     *
+     * @param synsets   the name of the synsets file
+     * @param hypernyms the name of the hypernyms file
+     * @throws IllegalArgumentException if any of the files is malformed
+     * @throws UncheckedIOException     if any of the files cannot be read
+     */
+    WordNetParser(String synsets, String hypernyms) {
+        int numberOfVertices;
+        try {
+            open(synsets);
+            numberOfVertices = parseSynsets();
+            open(hypernyms);
+            parseHypernyms();
+        }
+        finally {
+            close();
+        }
+        dictionary = nouns.build();
+        digraph = CSRDigraph.fromEdges(numberOfVertices, tails, heads, edges);
+        buffer = null;
+        nouns = null;
+        tails = heads = null;
+    }
+
+    /**
+     * Returns the noun dictionary of the synsets file.
+     *
+     * @return the noun dictionary
+     */
+    CompactNounIndex dictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Returns the hypernym digraph of the hypernyms file. It is not checked for cycles or roots.
+     *
+     * @return the hypernym digraph
+     */
+    CSRDigraph digraph() {
+        return digraph;
+    }
+
+    /**
+     * Closes the file being parsed, if any, and opens the given one.
+     *
+     * @param file the name of the file
+     * @throws UncheckedIOException if the file cannot be opened
+     */
+    private void open(String file) {
+        close();
+        try {
+            in = Files.newInputStream(Paths.get(file));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        pos = limit = 0;
+        mark = -1;
+    }
+
+    /**
+     * Closes the file being parsed, if any.
+     *
+     * @throws UncheckedIOException if the file cannot be closed
+     */
+    private void close() {
+        if (in == null) return;
+        try {
+            in.close();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            in = null;
+        }
+    }
+
+    /**
+     * Returns true if there is a byte left to parse, refilling the buffer from the file if needed.
+     * Refilling moves the bytes from the mark, or from the current position, to the start of the
+     * buffer, and doubles the buffer if they fill it.
+     *
+     * @return true if {@code buffer[pos]} is the next byte of the file
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    private boolean available() {
+        if (pos < limit) return true;
+        int keep = mark >= 0 ? mark : pos;
+        if (keep > 0) {
+            System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+            pos -= keep;
+            limit -= keep;
+            if (mark >= 0) mark = 0;
+        }
+        else if (limit == buffer.length) buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+        try {
+            int n = in.read(buffer, limit, buffer.length - limit);
+            if (n < 0) return false;
+            limit += n;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Parses the lines {@code id,noun noun ...,gloss} of a synsets file.
+     *
+     * @return the number of synsets
+     */
+    private int parseSynsets() {
+        int count = 0;
+        while (skipBlankLines()) {
+            int vertex = parseInt();
+            expect(',');
+
+            mark = pos;
+            boolean ascii = true;
+            while (available() && buffer[pos] != ',' && !isEndOfLine(buffer[pos])) {
+                ascii &= buffer[pos++] >= 0;
+            }
+            if (ascii) nouns.add(vertex, chars.wrap(buffer, mark, pos));
+            else nouns.add(vertex, new String(buffer, mark, pos - mark, StandardCharsets.UTF_8));
+            mark = -1;
+            count++;
+
+            // Skip the gloss
+            while (available() && !isEndOfLine(buffer[pos])) pos++;
+        }
+        return count;
+    }
+
+    /**
+     * Parses the lines {@code id,hypernym,hypernym...} of a hypernyms file.
+     */
+    private void parseHypernyms() {
+        while (skipBlankLines()) {
+            int v = parseInt();
+            while (available() && buffer[pos] == ',') {
+                pos++;
+                int w = parseInt();
+                if (edges == tails.length) {
+                    tails = Arrays.copyOf(tails, 2 * edges);
+                    heads = Arrays.copyOf(heads, 2 * edges);
+                }
+                tails[edges] = v;
+                heads[edges] = w;
+                edges++;
+            }
+            if (available() && !isEndOfLine(buffer[pos])) {
+                throw new IllegalArgumentException();
+            }
+        }
+    }
+
+    /**
+     * Moves past any line breaks and blank lines.
+     *
+     * @return true if there is a line left to parse
+     */
+    private boolean skipBlankLines() {
+        while (available() && isEndOfLine(buffer[pos])) pos++;
+        return available();
+    }
+
+    /**
+     * Parses a non-negative decimal int at the current position.
+     *
+     * @return the parsed int
+     * @throws IllegalArgumentException if there is no digit at the current position
+     *         or the number does not fit in an int
+     */
+    private int parseInt() {
+        int digits = 0;
+        int value = 0;
+        while (available() && buffer[pos] >= '0' && buffer[pos] <= '9') {
+            int digit = buffer[pos++] - '0';
+            if (value > (Integer.MAX_VALUE - digit) / 10) throw new IllegalArgumentException();
+            value = 10 * value + digit;
+            digits++;
+        }
+        if (digits == 0) throw new IllegalArgumentException();
+        return value;
+    }
+
+    /**
+     * Moves past the given separator.
+     *
+     * @param separator the expected byte
+     * @throws IllegalArgumentException if the byte at the current position is not the separator
+     */
+    private void expect(char separator) {
+        if (!available() || buffer[pos] != separator) throw new IllegalArgumentException();
+        pos++;
+    }
+
+    /**
+     * Returns true if the byte ends a line.
+     *
+     * @param b the byte
+     * @return true if the byte is a line feed or a carriage return
+     */
+    private static boolean isEndOfLine(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * A view of a slice of ASCII bytes as chars, rewrapped for every nouns field so that the field
+     * can be added to the dictionary without decoding it into a string.
+     */
+    private static class AsciiChars implements CharSequence {
+        private byte[] bytes;
+        private int from, to;
+
+        /**
+         * Makes this view show a slice of bytes.
+         *
+         * @param bytes the bytes, all of them ASCII
+         * @param from  the start of the slice
+         * @param to    the end of the slice
+         * @return this view
+         */
+        AsciiChars wrap(byte[] bytes, int from, int to) {
+            this.bytes = bytes;
+            this.from = from;
+            this.to = to;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) bytes[from + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, from, to - from, StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Parses the two input files line by line, splitting each line into strings, the way the
+     * WordNet constructor used to.
+     *
+     * @param synsets   the name of the synsets file
+     * @param hypernyms the name of the hypernyms file
+     * @return the hypernym digraph
+     */
+    private static Digraph parseWithSplit(String synsets, String hypernyms) {
+        In inSynsets = new In(synsets);
+        HashNounIndex nouns = new HashNounIndex();
+        int numberOfVertices = 0;
+        while (!inSynsets.isEmpty()) {
+            numberOfVertices++;
+            String[] lineParts = inSynsets.readLine().split(",");
+            nouns.add(Integer.parseInt(lineParts[0]), lineParts[1]);
+        }
+
+        In inHypernyms = new In(hypernyms);
+        Digraph digraph = new Digraph(numberOfVertices);
+        while (!inHypernyms.isEmpty()) {
+            String[] lineParts = inHypernyms.readLine().split(",");
+            int v = Integer.parseInt(lineParts[0]);
+            for (int i = 1; i < lineParts.length; i++) {
+                digraph.addEdge(v, Integer.parseInt(lineParts[i]));
+            }
+        }
+        return digraph;
+    }
+
+    /**
+     * Benchmarks this parser against splitting each line into strings, on the given synsets and
+     * hypernyms files. Prints the best time of each over a number of rounds.
+     *
+     * @param args the synsets file, the hypernyms file and, optionally, the number of rounds
+     */
+    public static void main(String[] args) {
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        long bestSplit = Long.MAX_VALUE, bestBytes = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            Digraph split = parseWithSplit(args[0], args[1]);
+            bestSplit = Math.min(bestSplit, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            WordNetParser parser = new WordNetParser(args[0], args[1]);
+            bestBytes = Math.min(bestBytes, System.nanoTime() - start);
+
+            if (split.E() != parser.digraph().E()) throw new IllegalStateException();
+        }
+        StdOut.printf("split:  %d ms\n", bestSplit / 1000000);
+        StdOut.printf("bytes:  %d ms\n", bestBytes / 1000000);
+    }
+}
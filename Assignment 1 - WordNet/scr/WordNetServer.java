@@ -0,0 +1,487 @@
+import edu.princeton.cs.algs4.StdOut;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The WordNetServer class serves one {@link WordNet} to other processes on the same machine, so
+ * that they do not each pay its startup time and heap.
+ * <p>
+ * It listens on the loopback interface and speaks a line protocol: each request is one line of
+ * words separated by spaces, and each response is one line.
+ * <pre>
+ *   isNoun noun              -&gt; true | false
+ *   distance nounA nounB     -&gt; the distance
+ *   sap nounA nounB          -&gt; the synset of the common ancestor
+ *   outcast noun noun ...    -&gt; the outcast
+ *   stats                    -&gt; throughput, latency percentiles and batching of the server
+ * </pre>
+ * A request that fails is answered with {@code ERR} and a reason.
+ * <p>
+ * Each connection is served by its own thread: a virtual thread on runtimes that have them, a
+ * pooled platform thread otherwise. The {@code distance} and {@code sap} requests of all the
+ * connections are put in one queue and taken out in micro-batches of whatever has arrived, so an
+ * idle server adds no delay. Both requests are symmetric in their nouns, so the requests of a
+ * batch of the same kind that share either noun are answered by one bit-parallel search from it
+ * with {@link WordNet#distances} or {@link WordNet#saps}, and the groups of a batch run in
+ * parallel. When two common ancestors tie, {@code sap} may name either one, depending on how the
+ * request was batched.
+ */
+public class WordNetServer implements AutoCloseable {
+    private static final int MAX_BATCH = 1024;    // Most requests taken out of the queue at once
+    private static final int DEFAULT_PORT = 4242;
+
+    private final WordNet wordnet;
+    private final Outcast outcast;
+    private final ServerSocket socket;
+    private final ExecutorService connections;    // Serves each connection on its own thread
+    private final ExecutorService workers;        // Runs the groups of each batch
+    private final BlockingQueue<Request> pending = new LinkedBlockingQueue<>();
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();  // Open connections
+    private final Thread acceptor, batcher;
+    private final Histogram latency = new Histogram();  // Nanoseconds from request to response
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batched = new LongAdder();  // Requests in all the batches
+    private final LongAdder searches = new LongAdder(); // Groups of all the batches
+    private final long started = System.nanoTime();
+    private volatile boolean closed;
+
+    /**
+     * A {@code distance} or {@code sap} request waiting for its batch.
+     */
+    private static class Request {
+        private final boolean sap;  // True for sap, false for distance
+        private final String nounA, nounB;
+        private final CompletableFuture<String> response = new CompletableFuture<>();
+
+        /**
+         * Initializes a request.
+         *
+         * @param sap   true for sap, false for distance
+         * @param nounA the first noun
+         * @param nounB the second noun
+         */
+        Request(boolean sap, String nounA, String nounB) {
+            this.sap = sap;
+            this.nounA = nounA;
+            this.nounB = nounB;
+        }
+
+        /**
+         * Returns the noun of the request other than the given one.
+         *
+         * @param noun one of the nouns of the request
+         * @return the other noun
+         */
+        String other(String noun) {
+            return noun.equals(nounA) ? nounB : nounA;
+        }
+    }
+
+    /**
+     * The requests of a batch of the same kind that share a noun, answered by one search from it.
+     */
+    private class Group implements Runnable {
+        private final boolean sap;     // True for sap, false for distance
+        private final String source;   // The noun the requests share
+        private final List<Request> requests = new ArrayList<>();
+
+        /**
+         * Initializes an empty group.
+         *
+         * @param sap    true for sap, false for distance
+         * @param source the noun the requests share
+         */
+        Group(boolean sap, String source) {
+            this.sap = sap;
+            this.source = source;
+        }
+
+        @Override
+        public void run() {
+            answer(this);
+        }
+
+        /**
+         * Answers the requests of the group that are not answered yet with the same response.
+         *
+         * @param response the response
+         */
+        void complete(String response) {
+            for (Request request : requests) request.response.complete(response);
+        }
+    }
+
+    /**
+     * Starts serving a WordNet on a port of the loopback interface.
+     *
+     * @param wordnet the WordNet
+     * @param port    the port; 0 for any free port
+     * @throws IllegalArgumentException if the WordNet is null
+     * @throws UncheckedIOException     if the port cannot be bound
+     */
+    public WordNetServer(WordNet wordnet, int port) {
+        if (wordnet == null) throw new IllegalArgumentException();
+        this.wordnet = wordnet;
+        outcast = new Outcast(wordnet);
+        try {
+            socket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        connections = connectionExecutor();
+        workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                                               daemon("wordnet-worker"));
+        acceptor = daemon("wordnet-acceptor").newThread(this::accept);
+        batcher = daemon("wordnet-batcher").newThread(this::batch);
+        acceptor.start();
+        batcher.start();
+    }
+
+    /**
+     * Returns an executor that runs each task on a new virtual thread if the runtime has virtual
+     * threads, and on a pooled daemon thread otherwise.
+     *
+     * @return the executor for the connections
+     */
+    private static ExecutorService connectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                                                    .invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(daemon("wordnet-connection"));
+        }
+    }
+
+    /**
+     * Returns a factory of named daemon threads, which do not keep the JVM alive.
+     *
+     * @param name the name of the threads
+     * @return the thread factory
+     */
+    private static ThreadFactory daemon(String name) {
+        return task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return the port
+     */
+    public int port() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server is closed.
+     */
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket connection = socket.accept();
+                clients.add(connection);
+                // close() may have missed a connection accepted while it ran
+                if (closed) connection.close();
+                else {
+                    try {
+                        connections.execute(() -> serve(connection));
+                    }
+                    catch (RejectedExecutionException e) {
+                        // close() shut the executor down after the check above
+                        clients.remove(connection);
+                        connection.close();
+                    }
+                }
+            }
+            catch (IOException e) {
+                if (!closed) StdOut.println("accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Answers the requests of a connection, one line at a time, until the client closes it.
+     *
+     * @param connection the connection
+     */
+    private void serve(Socket connection) {
+        try (Socket s = connection;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(
+                     new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            s.setTcpNoDelay(true);
+            String line;
+            while ((line = in.readLine()) != null) {
+                long start = System.nanoTime();
+                String response = handle(line);
+                out.write(response);
+                out.newLine();
+                out.flush();
+                latency.record(System.nanoTime() - start);
+            }
+        }
+        catch (IOException e) {
+            // The client went away, or the server closed the connection; nothing to answer
+        }
+        finally {
+            clients.remove(connection);
+        }
+    }
+
+    /**
+     * Answers one request.
+     *
+     * @param line the request
+     * @return the response
+     */
+    String handle(String line) {
+        String[] words = line.trim().split(" +");
+        try {
+            switch (words[0]) {
+                case "isNoun":
+                    if (words.length != 2) return "ERR usage: isNoun noun";
+                    return String.valueOf(wordnet.isNoun(words[1]));
+                case "distance":
+                case "sap":
+                    if (words.length != 3) return "ERR usage: " + words[0] + " nounA nounB";
+                    Request request = new Request(words[0].equals("sap"), words[1], words[2]);
+                    pending.add(request);
+                    // close() may have drained the queue before the request reached it
+                    if (closed) failPending();
+                    return request.response.get();
+                case "outcast":
+                    if (words.length < 2) return "ERR usage: outcast noun noun ...";
+                    String[] nouns = Arrays.copyOfRange(words, 1, words.length);
+                    for (String noun : nouns) {
+                        if (!wordnet.isNoun(noun)) return "ERR not a WordNet noun";
+                    }
+                    return outcast.outcast(nouns);
+                case "stats":
+                    return stats();
+                default:
+                    return "ERR unknown request: " + words[0];
+            }
+        }
+        catch (ExecutionException e) {
+            return "ERR " + e.getCause();
+        }
+        catch (RuntimeException e) {
+            return "ERR " + e;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "ERR server closed";
+        }
+    }
+
+    /**
+     * Takes the pending requests out of the queue in micro-batches until the server is closed.
+     */
+    private void batch() {
+        List<Request> batch = new ArrayList<>();
+        while (!closed) {
+            try {
+                batch.add(pending.take());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            pending.drainTo(batch, MAX_BATCH - 1);
+            batches.increment();
+            batched.add(batch.size());
+
+            // Each request is searched from whichever of its nouns more requests of its kind in
+            // the batch have, and the requests searched from the same noun share one search
+            Map<String, Integer> counts = new HashMap<>();
+            for (Request request : batch) {
+                counts.merge(key(request.sap, request.nounA), 1, Integer::sum);
+                if (!request.nounB.equals(request.nounA)) {
+                    counts.merge(key(request.sap, request.nounB), 1, Integer::sum);
+                }
+            }
+            Map<String, Group> groups = new LinkedHashMap<>();
+            for (Request request : batch) {
+                String keyA = key(request.sap, request.nounA);
+                String keyB = key(request.sap, request.nounB);
+                boolean fromB = counts.get(keyB) > counts.get(keyA);
+                String source = fromB ? request.nounB : request.nounA;
+                Group group = groups.computeIfAbsent(fromB ? keyB : keyA,
+                                                     ignored -> new Group(request.sap, source));
+                group.requests.add(request);
+            }
+            searches.add(groups.size());
+            for (Group group : groups.values()) {
+                try {
+                    workers.execute(group);
+                }
+                catch (RejectedExecutionException e) {
+                    group.complete("ERR server closed");
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Returns the key of the requests of a kind that share a noun.
+     *
+     * @param sap  true for sap, false for distance
+     * @param noun the noun
+     * @return the key
+     */
+    private static String key(boolean sap, String noun) {
+        return (sap ? "sap " : "distance ") + noun;
+    }
+
+    /**
+     * Answers a group of requests of the same kind that share a noun.
+     *
+     * @param group the requests
+     */
+    private void answer(Group group) {
+        if (!wordnet.isNoun(group.source)) {
+            group.complete("ERR not a WordNet noun");
+            return;
+        }
+
+        List<Request> valid = new ArrayList<>(group.requests.size());
+        for (Request request : group.requests) {
+            if (wordnet.isNoun(request.other(group.source))) valid.add(request);
+            else request.response.complete("ERR not a WordNet noun");
+        }
+        if (valid.isEmpty()) return;
+
+        String source = group.source;
+        String[] others = new String[valid.size()];
+        for (int i = 0; i < others.length; i++) others[i] = valid.get(i).other(source);
+        try {
+            if (group.sap) {
+                String[] saps = valid.size() == 1
+                                ? new String[] { wordnet.sap(source, others[0]) }
+                                : wordnet.saps(source, others);
+                for (int i = 0; i < saps.length; i++) valid.get(i).response.complete(saps[i]);
+            }
+            else {
+                int[] distances = valid.size() == 1
+                                  ? new int[] { wordnet.distance(source, others[0]) }
+                                  : wordnet.distances(source, others);
+                for (int i = 0; i < distances.length; i++) {
+                    valid.get(i).response.complete(String.valueOf(distances[i]));
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            for (Request request : valid) request.response.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Returns the throughput, latency percentiles and batching of the server since it started.
+     *
+     * @return one line of statistics
+     */
+    public String stats() {
+        long requests = latency.count();
+        double seconds = (System.nanoTime() - started) / 1e9;
+        long batchCount = batches.sum();
+        return String.format("requests %d, %.0f/s, p50 %.1f us, p99 %.1f us, max %.1f us, "
+                             + "%d batches of %.1f on average, %d searches", requests,
+                             requests / seconds, latency.percentile(0.5) / 1e3,
+                             latency.percentile(0.99) / 1e3, latency.max() / 1e3, batchCount,
+                             batchCount == 0 ? 0.0 : (double) batched.sum() / batchCount,
+                             searches.sum());
+    }
+
+    /**
+     * Stops accepting connections, closes the open ones and stops the threads of the server.
+     * Requests still waiting for their batch, or for their group to run, are answered with
+     * {@code ERR server closed}.
+     * <p>
+     * A thread reading a request cannot be interrupted on every runtime, so closing its socket is
+     * what stops it.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            // Closing anyway
+        }
+        for (Socket client : clients) {
+            try {
+                client.close();
+            }
+            catch (IOException e) {
+                // Closing anyway
+            }
+        }
+        batcher.interrupt();
+        connections.shutdownNow();
+        for (Runnable group : workers.shutdownNow()) ((Group) group).complete("ERR server closed");
+        failPending();
+    }
+
+    /**
+     * Answers the requests still waiting for their batch with {@code ERR server closed}.
+     */
+    private void failPending() {
+        for (Request request = pending.poll(); request != null; request = pending.poll()) {
+            request.response.complete("ERR server closed");
+        }
+    }
+
+    /**
+     * Serves a WordNet until the process is stopped, printing the statistics of the server when
+     * it is.
+     *
+     * @param args the synsets file, the hypernyms file and, optionally, the port
+     */
+    public static void main(String[] args) {
+        WordNet wordnet = new WordNet(args[0], args[1]);
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PORT;
+        WordNetServer server = new WordNetServer(wordnet, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> StdOut.println(server.stats())));
+        StdOut.println("listening on localhost:" + server.port());
+        try {
+            server.acceptor.join();
+        }
+        catch (InterruptedException e) {
+            server.close();
+        }
+    }
+}
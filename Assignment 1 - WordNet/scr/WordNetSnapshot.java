@@ -0,0 +1,372 @@
+import edu.princeton.cs.algs4.StdOut;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The WordNetSnapshot class is a {@link NounIndex} read in place from a memory-mapped binary
+ * snapshot of a WordNet, which also holds the hypernym digraph.
+ * <p>
+ * A snapshot is a header followed by int sections and then byte sections:
+ * <pre>
+ *   MAGIC, V, E, N, P, synsetBytes, nounBytes
+ *   int[V + 1] adjacency offsets, int[E] hypernyms
+ *   int[V + 1] synset offsets
+ *   int[N + 1] noun offsets, int[N + 1] posting offsets, int[P] postings
+ *   byte[synsetBytes] nouns of each synset, byte[nounBytes] nouns in UTF-8 order
+ * </pre>
+ * The nouns are sorted by their UTF-8 bytes, so a lookup is a binary search over the mapped
+ * bytes, and the synsets of noun i are postings[postingOffsets[i]..postingOffsets[i + 1]).
+ * The two adjacency sections are exactly the arrays of a {@link CSRDigraph}, so the digraph is
+ * loaded with two bulk copies, and nothing else is copied into the heap: loading is nearly
+ * instant and several processes mapping the same snapshot share its pages.
+ * <p>
+ * There is no gloss section: WordNet drops the glosses of the synsets file when it parses it,
+ * so a snapshot holds exactly what a parsed WordNet does.
+ * <p>
+ * Every size and offset is checked when a snapshot is mapped, so a truncated or corrupt file is
+ * rejected at load instead of failing later inside a query.
+ */
+class WordNetSnapshot implements NounIndex {
+    private static final int MAGIC = 0x574e5331;  // "WNS1", the header of a snapshot
+    private static final int HEADER = 7;          // Number of ints in the header
+
+    private final int V, E, N;
+    private final IntBuffer adjOffsets, hypernyms;
+    private final IntBuffer synsetOffsets, nounOffsets, postingOffsets, postings;
+    private final ByteBuffer synsetBytes, nounBytes;
+
+    /**
+     * Initializes the views of a mapped snapshot.
+     *
+     * @param buffer the mapped snapshot
+     * @throws IllegalArgumentException if the buffer is not a well-formed snapshot
+     */
+    private WordNetSnapshot(ByteBuffer buffer) {
+        IntBuffer header = buffer.asIntBuffer();
+        if (header.remaining() < HEADER || header.get(0) != MAGIC) {
+            throw new IllegalArgumentException();
+        }
+        V = header.get(1);
+        E = header.get(2);
+        N = header.get(3);
+        int p = header.get(4);
+        int synsetLength = header.get(5);
+        int nounLength = header.get(6);
+        if (V < 0 || E < 0 || N < 0 || p < 0 || synsetLength < 0 || nounLength < 0) {
+            throw new IllegalArgumentException();
+        }
+        long expected = Integer.BYTES * (HEADER + 2L * V + 2 + E + 2L * N + 2 + p)
+                + synsetLength + nounLength;
+        if (expected != buffer.capacity()) throw new IllegalArgumentException();
+
+        int position = Integer.BYTES * HEADER;
+        adjOffsets = ints(buffer, position, V + 1);
+        position += Integer.BYTES * (V + 1);
+        hypernyms = ints(buffer, position, E);
+        position += Integer.BYTES * E;
+        synsetOffsets = ints(buffer, position, V + 1);
+        position += Integer.BYTES * (V + 1);
+        nounOffsets = ints(buffer, position, N + 1);
+        position += Integer.BYTES * (N + 1);
+        postingOffsets = ints(buffer, position, N + 1);
+        position += Integer.BYTES * (N + 1);
+        postings = ints(buffer, position, p);
+        position += Integer.BYTES * p;
+        synsetBytes = buffer.slice(position, synsetLength);
+        position += synsetLength;
+        nounBytes = buffer.slice(position, nounLength);
+
+        checkOffsets(adjOffsets, E);
+        checkTargets(hypernyms, V);
+        checkOffsets(synsetOffsets, synsetLength);
+        checkOffsets(nounOffsets, nounLength);
+        checkOffsets(postingOffsets, p);
+        checkTargets(postings, V);
+    }
+
+    /**
+     * Checks that a section of offsets starts at 0, never decreases and ends at the length of the
+     * section it indexes.
+     *
+     * @param offsets the offsets
+     * @param length  the length of the indexed section
+     * @throws IllegalArgumentException if the offsets are not valid
+     */
+    private static void checkOffsets(IntBuffer offsets, int length) {
+        int last = offsets.limit() - 1;
+        if (offsets.get(0) != 0 || offsets.get(last) != length) {
+            throw new IllegalArgumentException();
+        }
+        for (int i = 0; i < last; i++) {
+            if (offsets.get(i) > offsets.get(i + 1)) throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Checks that every entry of a section is a vertex.
+     *
+     * @param targets the section
+     * @param V       the number of vertices
+     * @throws IllegalArgumentException if an entry is not a vertex
+     */
+    private static void checkTargets(IntBuffer targets, int V) {
+        for (int i = 0; i < targets.limit(); i++) {
+            int v = targets.get(i);
+            if (v < 0 || v >= V) throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Returns a view of a section of ints.
+     *
+     * @param buffer   the snapshot
+     * @param position the byte offset of the section
+     * @param length   the number of ints in the section
+     * @return the view of the section
+     */
+    private static IntBuffer ints(ByteBuffer buffer, int position, int length) {
+        return buffer.slice(position, Integer.BYTES * length).asIntBuffer();
+    }
+
+    /**
+     * Maps a snapshot file into memory.
+     *
+     * @param file the name of the snapshot file
+     * @return the mapped snapshot
+     * @throws IllegalArgumentException if the file name is null or the file is not a snapshot
+     * @throws UncheckedIOException     if the file cannot be read
+     */
+    static WordNetSnapshot map(String file) {
+        if (file == null) throw new IllegalArgumentException();
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return new WordNetSnapshot(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a snapshot of a dictionary and its hypernym digraph.
+     *
+     * @param file       the name of the snapshot file
+     * @param dictionary the dictionary
+     * @param G          the hypernym digraph
+     * @throws IllegalArgumentException if the file name is null
+     * @throws UncheckedIOException     if the file cannot be written
+     */
+    static void write(String file, NounIndex dictionary, CSRDigraph G) {
+        if (file == null) throw new IllegalArgumentException();
+        int n = G.V();
+
+        // Sort the nouns by their UTF-8 bytes, the order lookups search in
+        List<byte[]> nouns = new ArrayList<>();
+        for (String noun : dictionary.nouns()) nouns.add(noun.getBytes(StandardCharsets.UTF_8));
+        nouns.sort(Arrays::compareUnsigned);
+
+        byte[][] synsets = new byte[n][];
+        int synsetLength = 0, nounLength = 0, p = 0;
+        for (int v = 0; v < n; v++) {
+            synsets[v] = dictionary.synset(v).getBytes(StandardCharsets.UTF_8);
+            synsetLength += synsets[v].length;
+        }
+        for (byte[] noun : nouns) {
+            nounLength += noun.length;
+            p += dictionary.vertices(new String(noun, StandardCharsets.UTF_8)).size();
+        }
+
+        int ints = HEADER + 2 * (n + 1) + G.E() + 2 * (nouns.size() + 1) + p;
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES * ints + synsetLength + nounLength);
+        buffer.putInt(MAGIC).putInt(n).putInt(G.E()).putInt(nouns.size()).putInt(p)
+              .putInt(synsetLength).putInt(nounLength);
+
+        for (int v = 0; v <= n; v++) buffer.putInt(G.offset(v));
+        for (int i = 0; i < G.E(); i++) buffer.putInt(G.target(i));
+
+        int offset = 0;
+        for (int v = 0; v < n; v++) {
+            buffer.putInt(offset);
+            offset += synsets[v].length;
+        }
+        buffer.putInt(offset);
+
+        offset = 0;
+        for (byte[] noun : nouns) {
+            buffer.putInt(offset);
+            offset += noun.length;
+        }
+        buffer.putInt(offset);
+
+        offset = 0;
+        for (byte[] noun : nouns) {
+            buffer.putInt(offset);
+            offset += dictionary.vertices(new String(noun, StandardCharsets.UTF_8)).size();
+        }
+        buffer.putInt(offset);
+        for (byte[] noun : nouns) {
+            for (int v : dictionary.vertices(new String(noun, StandardCharsets.UTF_8))) {
+                buffer.putInt(v);
+            }
+        }
+
+        for (byte[] synset : synsets) buffer.put(synset);
+        for (byte[] noun : nouns) buffer.put(noun);
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.WRITE,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Builds the hypernym digraph stored in the snapshot.
+     *
+     * @return the hypernym digraph
+     */
+    CSRDigraph digraph() {
+        int[] offsets = new int[V + 1];
+        int[] targets = new int[E];
+        adjOffsets.get(0, offsets);
+        hypernyms.get(0, targets);
+        return new CSRDigraph(offsets, targets);
+    }
+
+    /**
+     * Returns the index of a noun in the sorted noun section.
+     *
+     * @param word the word
+     * @return the index of the noun; -1 if the word is not a noun
+     */
+    private int find(String word) {
+        byte[] key = word.getBytes(StandardCharsets.UTF_8);
+        int lo = 0, hi = N - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(key, mid);
+            if (cmp < 0) hi = mid - 1;
+            else if (cmp > 0) lo = mid + 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Compares a key with the i-th noun, byte by byte as unsigned values.
+     *
+     * @param key the UTF-8 bytes of the key
+     * @param i   the index of the noun
+     * @return a negative, zero or positive value if the key is less than, equal to or greater
+     * than the noun
+     */
+    private int compare(byte[] key, int i) {
+        int start = nounOffsets.get(i);
+        int length = nounOffsets.get(i + 1) - start;
+        int common = Math.min(key.length, length);
+        for (int k = 0; k < common; k++) {
+            int cmp = Byte.toUnsignedInt(key[k]) - Byte.toUnsignedInt(nounBytes.get(start + k));
+            if (cmp != 0) return cmp;
+        }
+        return key.length - length;
+    }
+
+    /**
+     * Decodes a UTF-8 string from a byte section.
+     *
+     * @param bytes the byte section
+     * @param start the offset of the string
+     * @param end   the offset just past the string
+     * @return the decoded string
+     */
+    private static String decode(ByteBuffer bytes, int start, int end) {
+        byte[] chars = new byte[end - start];
+        bytes.get(start, chars);
+        return new String(chars, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean contains(String word) {
+        return find(word) != -1;
+    }
+
+    @Override
+    public List<Integer> vertices(String noun) {
+        int i = find(noun);
+        if (i == -1) return null;
+        return new Postings(postings, postingOffsets.get(i), postingOffsets.get(i + 1));
+    }
+
+    @Override
+    public String synset(int vertex) {
+        if (vertex < 0 || vertex >= V) return null;
+        return decode(synsetBytes, synsetOffsets.get(vertex), synsetOffsets.get(vertex + 1));
+    }
+
+    @Override
+    public int synsetCount() {
+        return V;
+    }
+
+    @Override
+    public Iterable<String> nouns() {
+        return () -> new Iterator<String>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < N;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                String noun = decode(nounBytes, nounOffsets.get(i), nounOffsets.get(i + 1));
+                i++;
+                return noun;
+            }
+        };
+    }
+
+    /**
+     * Unit testing of this class: writes a snapshot of the given synsets and hypernyms files and
+     * compares the time to load it with the time to parse the text files.
+     *
+     * @param args the synsets file, the hypernyms file and the snapshot file
+     */
+    public static void main(String[] args) {
+        long start = System.nanoTime();
+        WordNet parsed = new WordNet(args[0], args[1]);
+        long parseMillis = (System.nanoTime() - start) / 1000000;
+        parsed.saveSnapshot(args[2]);
+
+        start = System.nanoTime();
+        WordNet loaded = WordNet.loadSnapshot(args[2]);
+        long loadMillis = (System.nanoTime() - start) / 1000000;
+        StdOut.printf("parse %d ms, load %d ms\n", parseMillis, loadMillis);
+
+        int checked = 0;
+        for (String noun : parsed.nouns()) {
+            if (!loaded.isNoun(noun)) throw new IllegalStateException(noun);
+            if (++checked == 1000) break;
+        }
+        StdOut.println("checked " + checked + " nouns");
+    }
+}
@@ -0,0 +1,481 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The MappedBands class keeps the packed colors, energies and path costs of a
+ * {@link SeamCarver} in a memory-mapped scratch file rather than in the heap,
+ * for pictures too large for it.
+ * <p>
+ * The file is cut into bands of rows, each mapped on its own and holding the
+ * colors, then the energies of its rows, then the path costs of its kept rows,
+ * so no mapping reaches the 2 GB limit of a buffer. As in the heap, the costs
+ * are kept only for one row in every {@code keep} and for the last row, the
+ * only ones a seam search reads back. Only the few most recently used bands are
+ * held in heap arrays, each plane being read the first time it is asked for, so
+ * a seam search reads the energies but not the colors. A band is written back
+ * to the file, for the planes that changed, when another one takes its place.
+ * The heap taken by a picture is therefore bounded by the size of a band, and
+ * the operating system pages the rest of the file in and out as the bands are
+ * used.
+ * <p>
+ * A transposition or a resize needs the old bands and the new ones at once, so
+ * it maps the new ones in a spare scratch file, and the new bands take the file
+ * of the old ones as their own spare. Two files thus take turns for as long as
+ * the bands live, each truncated or grown to the size it is mapped at. The old
+ * bands must then be closed, and the last bands must be closed too, which
+ * closes the files. The mappings themselves go when the garbage collector gets
+ * to them, but they only ever map those two files, so the disk taken stays
+ * bounded by them.
+ * <p>
+ * The arrays of a band stay valid until three other bands have been used, so a
+ * caller may hold the rows of two bands at once, such as a row and the rows
+ * next to it. The class is not safe for concurrent use.
+ */
+class MappedBands {
+    private static final int RESIDENT = 3;  // Bands held in the heap at a time
+    private static final int TILE = 256;    // Side of the blocks a transposition copies at a time
+    private static final int PIXEL_BYTES = Integer.BYTES + Double.BYTES;  // Color and energy
+
+    private final String directory;
+    private final int rows, stride, bandRows;
+    private final int keep;                // Rows from one kept row of costs to the next
+    private FileChannel channel;           // The scratch file of the bands; null once handed on
+    private FileChannel spare;             // The other scratch file; null if none yet or handed on
+    private IntBuffer[] colors;            // Colors of each band of the file; null once closed
+    private DoubleBuffer[] energies;       // Energies of each band of the file
+    private DoubleBuffer[] costs;          // Path costs of the kept rows of each band
+    private final Band[] resident = new Band[RESIDENT];  // Most recently used first
+    private int count;                      // Number of resident bands
+
+    /**
+     * A band of rows copied into the heap.
+     */
+    private static class Band {
+        private int index;  // The band of the file it holds
+        private final int[] rgb;
+        private final double[] energy;
+        private final double[] costs;
+        private boolean rgbRead, energyRead, costsRead;
+        private boolean rgbChanged, energyChanged, costsChanged;
+
+        /**
+         * Initializes a band of the given number of elements per plane.
+         *
+         * @param size      the number of colors and energies
+         * @param costsSize the number of costs of the kept rows
+         */
+        Band(int size, int costsSize) {
+            rgb = new int[size];
+            energy = new double[size];
+            costs = new double[costsSize];
+        }
+    }
+
+    /**
+     * Creates a scratch file for the given number of rows, and maps it band by
+     * band.
+     *
+     * @param directory the directory of the scratch files
+     * @param rows      the number of rows
+     * @param stride    the length of a row
+     * @param bandRows  the number of rows of a band
+     * @param keep      the number of rows from one kept row of costs to the
+     *                  next
+     * @throws IllegalArgumentException if the directory is null, or if a band
+     *                                  holds no row or more than 2 GB
+     * @throws UncheckedIOException     if the scratch file cannot be created
+     */
+    MappedBands(String directory, int rows, int stride, int bandRows, int keep) {
+        if (directory == null || bandRows < 1 || keep < 1) throw new IllegalArgumentException();
+        checkBand(bandRows, stride, keep);
+        this.directory = directory;
+        this.rows = rows;
+        this.stride = stride;
+        this.bandRows = bandRows;
+        this.keep = keep;
+        channel = open(directory);
+        map();
+    }
+
+    /**
+     * Maps new bands in the spare scratch file of the given bands, which hand
+     * both their files over and keep only their mappings, until closed.
+     *
+     * @param previous the bands whose files to take over
+     * @param rows     the number of rows
+     * @param stride   the length of a row
+     * @throws IllegalArgumentException if a band would hold more than 2 GB
+     * @throws UncheckedIOException     if the spare scratch file cannot be
+     *                                  created
+     */
+    private MappedBands(MappedBands previous, int rows, int stride) {
+        checkBand(previous.bandRows, stride, previous.keep);
+        directory = previous.directory;
+        this.rows = rows;
+        this.stride = stride;
+        bandRows = previous.bandRows;
+        keep = previous.keep;
+        channel = previous.spare == null ? open(directory) : previous.spare;
+        spare = previous.channel;
+        previous.channel = null;
+        previous.spare = null;
+        map();
+    }
+
+    /**
+     * Checks that a band of the given size fits in one mapping.
+     *
+     * @param bandRows the number of rows of a band
+     * @param stride   the length of a row
+     * @param keep     the number of rows from one kept row of costs to the next
+     * @throws IllegalArgumentException if a band would hold more than 2 GB
+     */
+    private static void checkBand(int bandRows, int stride, int keep) {
+        long bytes = (long) bandRows * stride * PIXEL_BYTES
+                + (long) maxKept(bandRows, keep) * stride * Double.BYTES;
+        if (bytes > Integer.MAX_VALUE) throw new IllegalArgumentException();
+    }
+
+    /**
+     * Returns the most kept rows a band can hold: the rows that are a multiple
+     * of {@code keep}, and the last row.
+     *
+     * @param bandRows the number of rows of a band
+     * @param keep     the number of rows from one kept row of costs to the next
+     * @return the most kept rows of a band
+     */
+    private static int maxKept(int bandRows, int keep) {
+        return (bandRows + keep - 1) / keep + 1;
+    }
+
+    /**
+     * Returns the number of kept rows before a row: the index of its costs
+     * among those of all the kept rows, if it is kept.
+     *
+     * @param y the row, or the number of rows
+     * @return the number of kept rows before row {@code y}
+     */
+    private int keptBefore(int y) {
+        if (y < rows) return (y + keep - 1) / keep;
+        return (rows - 1 + keep - 1) / keep + 1;   // Every multiple of keep and the last row
+    }
+
+    /**
+     * Creates and opens a scratch file. The file is deleted at once, so the
+     * system frees its space when it is closed and unmapped, even if the
+     * process dies first.
+     *
+     * @param directory the directory of the scratch file
+     * @return the open scratch file
+     * @throws UncheckedIOException if the scratch file cannot be created
+     */
+    private static FileChannel open(String directory) {
+        try {
+            Path file = Files.createTempFile(Paths.get(directory), "seams", ".tmp");
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                                                   StandardOpenOption.WRITE);
+            try {
+                Files.delete(file);
+            }
+            catch (IOException e) {
+                file.toFile().deleteOnExit();   // Open files cannot be deleted on some systems
+            }
+            return channel;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Sizes the scratch file for the bands and maps it band by band. On
+     * failure, the bands are closed.
+     *
+     * @throws UncheckedIOException if the file cannot be resized or mapped
+     */
+    private void map() {
+        int bands = (rows + bandRows - 1) / bandRows;
+        colors = new IntBuffer[bands];
+        energies = new DoubleBuffer[bands];
+        costs = new DoubleBuffer[bands];
+        try {
+            // Mapping past the end grows the file, so it only needs cutting down
+            long fileBytes = start(rows);
+            if (channel.size() > fileBytes) channel.truncate(fileBytes);
+            for (int b = 0; b < bands; b++) {
+                int size = size(b), costsSize = costsSize(b);
+                MappedByteBuffer band = channel.map(FileChannel.MapMode.READ_WRITE,
+                                                    start(b * bandRows),
+                                                    (long) size * PIXEL_BYTES
+                                                    + (long) costsSize * Double.BYTES);
+                colors[b] = plane(band, 0, size * Integer.BYTES).asIntBuffer();
+                energies[b] = plane(band, size * Integer.BYTES, size * Double.BYTES)
+                        .asDoubleBuffer();
+                costs[b] = plane(band, size * PIXEL_BYTES, costsSize * Double.BYTES)
+                        .asDoubleBuffer();
+            }
+        }
+        catch (IOException e) {
+            close();
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns a slice of a mapped band in the native byte order.
+     *
+     * @param band   the mapped band
+     * @param offset the offset of the slice in bytes
+     * @param length the length of the slice in bytes
+     * @return the slice
+     */
+    private static ByteBuffer plane(ByteBuffer band, int offset, int length) {
+        return band.slice(offset, length).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Returns the position in the file of the band starting at a row: the
+     * bands before it hold the colors and energies of every row before it and
+     * the costs of the kept ones.
+     *
+     * @param y the first row of the band, or the number of rows
+     * @return the position of the band in bytes
+     */
+    private long start(int y) {
+        return (long) y * stride * PIXEL_BYTES + (long) keptBefore(y) * stride * Double.BYTES;
+    }
+
+    /**
+     * Returns the number of colors, and of energies, of a band of the file.
+     *
+     * @param band the band
+     * @return the number of rows of the band times the length of a row
+     */
+    private int size(int band) {
+        return Math.min(bandRows, rows - band * bandRows) * stride;
+    }
+
+    /**
+     * Returns the number of costs of a band of the file.
+     *
+     * @param band the band
+     * @return the number of kept rows of the band times the length of a row
+     */
+    private int costsSize(int band) {
+        int first = band * bandRows, end = Math.min(first + bandRows, rows);
+        return (keptBefore(end) - keptBefore(first)) * stride;
+    }
+
+    /**
+     * Returns the index of column 0 of a row in the arrays returned for it.
+     *
+     * @param y the row
+     * @return the offset of the row in its band
+     */
+    int offset(int y) {
+        return y % bandRows * stride;
+    }
+
+    /**
+     * Returns the packed colors of the band holding a row.
+     *
+     * @param y     the row
+     * @param write true if the colors will be changed
+     * @return the colors of the band, the row starting at {@link #offset}
+     */
+    int[] rgb(int y, boolean write) {
+        Band band = fetch(y / bandRows);
+        if (!band.rgbRead) {
+            colors[band.index].get(0, band.rgb, 0, size(band.index));
+            band.rgbRead = true;
+        }
+        if (write) band.rgbChanged = true;
+        return band.rgb;
+    }
+
+    /**
+     * Returns the energies of the band holding a row.
+     *
+     * @param y     the row
+     * @param write true if the energies will be changed
+     * @return the energies of the band, the row starting at {@link #offset}
+     */
+    double[] energy(int y, boolean write) {
+        Band band = fetch(y / bandRows);
+        if (!band.energyRead) {
+            energies[band.index].get(0, band.energy, 0, size(band.index));
+            band.energyRead = true;
+        }
+        if (write) band.energyChanged = true;
+        return band.energy;
+    }
+
+    /**
+     * Returns the index of column 0 of a kept row in the array of costs
+     * returned for it.
+     *
+     * @param y the kept row
+     * @return the offset of the costs of the row in its band
+     */
+    int costOffset(int y) {
+        return (keptBefore(y) - keptBefore(y / bandRows * bandRows)) * stride;
+    }
+
+    /**
+     * Returns the path costs of the kept rows of the band holding a row.
+     *
+     * @param y     the kept row
+     * @param write true if the costs will be changed
+     * @return the costs of the band, the row starting at {@link #costOffset}
+     */
+    double[] costs(int y, boolean write) {
+        Band band = fetch(y / bandRows);
+        if (!band.costsRead) {
+            costs[band.index].get(0, band.costs, 0, costsSize(band.index));
+            band.costsRead = true;
+        }
+        if (write) band.costsChanged = true;
+        return band.costs;
+    }
+
+    /**
+     * Returns a band of the file in the heap, taking the place of the least
+     * recently used band if it is not resident. Its planes are read when first
+     * asked for.
+     *
+     * @param index the band of the file
+     * @return the resident band
+     */
+    private Band fetch(int index) {
+        int i = 0;
+        while (i < count && resident[i].index != index) i++;
+        Band band;
+        if (i < count) {
+            band = resident[i];
+        }
+        else {
+            if (count < RESIDENT) {
+                band = new Band(bandRows * stride, maxKept(bandRows, keep) * stride);
+                i = count++;
+            }
+            else {
+                band = resident[i = count - 1];
+                writeBack(band);
+            }
+            band.index = index;
+            band.rgbRead = band.energyRead = band.costsRead = false;
+        }
+        System.arraycopy(resident, 0, resident, 1, i);
+        resident[0] = band;
+        return band;
+    }
+
+    /**
+     * Writes the planes of a resident band that changed back to the file.
+     *
+     * @param band the resident band
+     */
+    private void writeBack(Band band) {
+        int size = size(band.index);
+        if (band.rgbChanged) colors[band.index].put(0, band.rgb, 0, size);
+        if (band.energyChanged) energies[band.index].put(0, band.energy, 0, size);
+        if (band.costsChanged) costs[band.index].put(0, band.costs, 0, costsSize(band.index));
+        band.rgbChanged = band.energyChanged = band.costsChanged = false;
+    }
+
+    /**
+     * Returns empty bands in the spare scratch file, for as many rows of the
+     * given length, in bands of as many rows. These bands can still be read,
+     * and must be closed once they are no longer needed.
+     *
+     * @param stride the length of a row
+     * @return the empty bands
+     * @throws IllegalArgumentException if a band would hold more than 2 GB
+     * @throws UncheckedIOException     if the spare scratch file cannot be
+     *                                  created or mapped
+     */
+    MappedBands resized(int stride) {
+        return new MappedBands(this, rows, stride);
+    }
+
+    /**
+     * Returns the transpose of the colors and energies of the first columns of
+     * every row, in the spare scratch file with bands of the same number of
+     * rows. These bands must be closed once it is returned.
+     * <p>
+     * The resident bands are written back, and the transpose is copied between
+     * the mappings in square blocks, so every block reads and writes runs of a
+     * kilobyte or more.
+     *
+     * @param cols the number of columns to transpose
+     * @return bands of {@code cols} rows of {@code rows} elements
+     * @throws UncheckedIOException if the spare scratch file cannot be created
+     *                              or mapped
+     */
+    MappedBands transpose(int cols) {
+        for (int i = 0; i < count; i++) writeBack(resident[i]);
+        MappedBands t = new MappedBands(this, cols, rows);
+        int[] rgbTile = new int[TILE * TILE], rgbTransposed = new int[TILE * TILE];
+        double[] energyTile = new double[TILE * TILE];
+        double[] energyTransposed = new double[TILE * TILE];
+        for (int r0 = 0; r0 < rows; r0 += TILE) {
+            int h = Math.min(TILE, rows - r0);
+            for (int c0 = 0; c0 < cols; c0 += TILE) {
+                int w = Math.min(TILE, cols - c0);
+                for (int r = 0; r < h; r++) {
+                    int y = r0 + r, band = y / bandRows, from = offset(y) + c0;
+                    colors[band].get(from, rgbTile, r * TILE, w);
+                    energies[band].get(from, energyTile, r * TILE, w);
+                }
+                for (int r = 0; r < h; r++) {
+                    for (int c = 0; c < w; c++) {
+                        rgbTransposed[c * TILE + r] = rgbTile[r * TILE + c];
+                        energyTransposed[c * TILE + r] = energyTile[r * TILE + c];
+                    }
+                }
+                for (int c = 0; c < w; c++) {
+                    int y = c0 + c, band = y / bandRows, to = t.offset(y) + r0;
+                    t.colors[band].put(to, rgbTransposed, c * TILE, h);
+                    t.energies[band].put(to, energyTransposed, c * TILE, h);
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Drops the resident bands without writing them back, and closes the
+     * scratch files the bands still own. The bands must not be used once
+     * closed; closing them again does nothing.
+     *
+     * @throws UncheckedIOException if a scratch file cannot be closed
+     */
+    void close() {
+        if (colors == null) return;
+        count = 0;
+        colors = null;
+        energies = null;
+        costs = null;
+        try {
+            if (channel != null) channel.close();
+            if (spare != null) spare.close();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            channel = null;
+            spare = null;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * The RawPicture class reads and writes pictures in a raw file, one row at a
+ * time, for pictures too large for the heap. The file holds the width and the
+ * height of the picture as ints, then the packed RGB color of every pixel as
+ * an int, row by row, all big-endian.
+ * <p>
+ * A RawPicture is the {@link SeamCarver.RowSource} of such a file, to be read
+ * into a SeamCarver that keeps its buffers off the heap, and {@link #write}
+ * streams the picture of a SeamCarver back to such a file. Either way only one
+ * row of the picture is held in the heap at a time.
+ */
+public class RawPicture implements SeamCarver.RowSource, AutoCloseable {
+    private final DataInputStream in;
+    private final int width, height;
+    private final byte[] bytes;    // One row of the file
+    private final IntBuffer ints;  // The row as ints
+
+    /**
+     * Opens a raw picture file and reads its size.
+     *
+     * @param file the raw picture file
+     * @throws IllegalArgumentException if the file is null, or if its width
+     *                                  or height is not positive
+     * @throws UncheckedIOException     if the file cannot be opened or read
+     */
+    public RawPicture(String file) {
+        if (file == null) throw new IllegalArgumentException();
+        try {
+            InputStream stream = Files.newInputStream(Paths.get(file));
+            in = new DataInputStream(stream);
+            try {
+                width = in.readInt();
+                height = in.readInt();
+                if (width < 1 || height < 1 || width > Integer.MAX_VALUE / Integer.BYTES) {
+                    throw new IllegalArgumentException();
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        bytes = new byte[width * Integer.BYTES];
+        ints = ByteBuffer.wrap(bytes).asIntBuffer();
+    }
+
+    /**
+     * Returns the width of the picture.
+     *
+     * @return the number of pixels of a row
+     */
+    @Override
+    public int width() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the picture.
+     *
+     * @return the number of rows
+     */
+    @Override
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Reads the next row of the picture.
+     *
+     * @param row the array receiving the packed RGB color of each pixel of the
+     *            row
+     * @throws UncheckedIOException if the file cannot be read, or ends early
+     */
+    @Override
+    public void readRow(int[] row) {
+        try {
+            in.readFully(bytes);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ints.rewind();
+        ints.get(row, 0, width);
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws UncheckedIOException if the file cannot be closed
+     */
+    @Override
+    public void close() {
+        try {
+            in.close();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the current picture of a SeamCarver to a raw picture file, row by
+     * row.
+     *
+     * @param file   the raw picture file, replaced if it exists
+     * @param carver the SeamCarver
+     * @throws IllegalArgumentException if the file or the SeamCarver is null
+     * @throws UncheckedIOException     if the file cannot be written
+     */
+    public static void write(String file, SeamCarver carver) {
+        if (file == null || carver == null) throw new IllegalArgumentException();
+        byte[] bytes = new byte[carver.width() * Integer.BYTES];
+        IntBuffer ints = ByteBuffer.wrap(bytes).asIntBuffer();
+        try (OutputStream stream = Files.newOutputStream(Paths.get(file));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(carver.width());
+            out.writeInt(carver.height());
+            carver.writeRows(row -> {
+                ints.rewind();
+                ints.put(row);
+                try {
+                    out.write(bytes);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Unit testing of this class: removes vertical seams from a raw picture
+     * file off the heap, and writes the result to another one.
+     *
+     * @param args the input file, the output file, the directory of the
+     *             scratch files and the number of seams to remove
+     */
+    public static void main(String[] args) {
+        SeamCarver carver;
+        try (RawPicture picture = new RawPicture(args[0])) {
+            carver = new SeamCarver(picture, args[2], 256);
+        }
+        try (SeamCarver sc = carver) {
+            sc.removeVerticalSeams(Integer.parseInt(args[3]));
+            write(args[1], sc);
+            System.out.println(sc.width() + "x" + sc.height());
+        }
+    }
+}
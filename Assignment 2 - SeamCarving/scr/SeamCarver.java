@@ -1,15 +1,129 @@
 import edu.princeton.cs.algs4.Picture;
 
-import java.awt.Color;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /**
  * The SeamCarver class provides methods for content-aware image resizing
  * using the seam carving technique.
+ * <p>
+ * The pixels are kept as packed RGB ints in a flat buffer, and a seam is
+ * removed in place by shifting the pixels after it, so carving allocates no
+ * pictures or colors; a {@link Picture} is only built by {@link #picture()}.
+ * The energy of every pixel is computed once and kept in a second buffer.
+ * Removing a seam only changes the energy of the pixels next to it, so only
+ * those are recomputed, and finding the next seam reads the buffer.
+ * <p>
+ * Both buffers are row-major, and are transposed when the direction of the
+ * seams changes: vertical seams are found on the picture, horizontal seams on
+ * its transpose. Either way a seam runs down the rows of the buffers, so one
+ * dynamic program serves both directions, reading and shifting contiguous
+ * rows, and a run of seams in one direction pays for no transposition.
+ * <p>
+ * Each cell of the dynamic program depends only on three cells of the row
+ * above, so in parallel mode the rows are split into column strips that run
+ * on the common fork-join pool. To synchronize once per band of rows instead
+ * of once per row, each strip also computes the cells of its neighbors that
+ * its own cells depend on within the band, a margin that narrows by one
+ * column per row. Every cell is computed by the same arithmetic in both
+ * modes, so the seams are identical.
+ * <p>
+ * A seam search keeps the costs of only one row in every 32, and traces the
+ * seam back through each band of rows by recomputing the few cells above the
+ * seam that it can have come from, so the dynamic program holds a quarter
+ * of a byte per pixel rather than a back-pointer or a cost for each. Its
+ * working rows are allocated once and reused by every search.
+ * <p>
+ * The energies, on the other hand, are kept as doubles, which the dynamic
+ * program reads as they are. A SeamCarver thus takes about 12 bytes per pixel
+ * in all: 4 for the colors, 8 for the energies and a quarter for the costs.
+ * That is more than the 8 of a carver that keeps a Picture and a back-pointer
+ * per pixel. Keeping the squared gradients as ints instead would bring it down
+ * to about 8, but at the price of a square root per cell of every search,
+ * which made a search about 30% slower, so the speed was kept.
+ * <p>
+ * {@link #removeVerticalSeams} and {@link #removeHorizontalSeams} remove many
+ * seams in a row and keep the costs of the dynamic program from one seam to
+ * the next, in the same kept rows. After a removal, each band of rows only
+ * recomputes the columns around the seam and below the cells of the kept row
+ * above whose cost changed, so the changes spread down from the seam only as
+ * far as they keep changing.
+ * <p>
+ * {@link #insertVerticalSeams} and {@link #insertHorizontalSeams} enlarge the
+ * picture by the seams such a batch would remove: the batch runs in place,
+ * keeping the colors of the removed pixels, and one pass over the rows then
+ * puts each of them back twice, so inserting k seams costs about as much as
+ * removing them.
+ * <p>
+ * A picture too large for the heap can be carved off it: the buffers are then
+ * kept in memory-mapped scratch files cut into bands of rows, of which only a
+ * few are held in the heap at a time (see {@link MappedBands}). Every row is
+ * reached through its band, so the dynamic program streams down the bands and
+ * the heap it takes is bounded by the size of a band, not of the picture.
+ * Transpositions and insertions take turns between two scratch files, so the
+ * disk a SeamCarver takes stays bounded too. The picture can be streamed into
+ * the bands row by row from a {@link RowSource}, and the result streamed out
+ * of them by {@link #writeRows}, so it never needs to be in the heap whole
+ * (see {@link RawPicture}). Such a SeamCarver must be closed once done with,
+ * to release its scratch files.
  */
-public class SeamCarver {
-    private Picture picture;
+public class SeamCarver implements AutoCloseable {
+    private static final int TILE = 32;    // Side of the blocks a transposition copies at a time
+    private static final int BAND = 32;    // Rows from one kept row of costs to the next
+    private static final int STRIP = 1024; // Fewest columns worth a strip of their own
+
+    private final boolean parallel;  // True to split each seam search across all cores
     private int width, height;
-    private int[][] edgeTo;
+    private boolean transposed;  // True if the buffers hold the transpose of the picture
+    private int stride;          // Row length of the buffers
+    private MappedBands bands;   // The buffers when kept off the heap; null when in it
+    private int[] rgb;           // Packed color of each pixel, row by row
+    private double[] energy;     // Energy of each pixel, row by row
+    private double[] distTo;     // Cost of the cheapest path to each pixel of the kept rows
+    private double[][] scratch;  // Two rolling rows of costs for each strip
+    private double[] cone;       // Costs of the cells a seam can come from within a band
+
+    /**
+     * A picture read one row at a time, from the top row down.
+     */
+    public interface RowSource {
+        /**
+         * Returns the width of the picture.
+         *
+         * @return the number of pixels of a row
+         */
+        int width();
+
+        /**
+         * Returns the height of the picture.
+         *
+         * @return the number of rows
+         */
+        int height();
+
+        /**
+         * Reads the next row of the picture.
+         *
+         * @param row the array receiving the packed RGB color of each pixel
+         *            of the row, {@link #width} of them
+         */
+        void readRow(int[] row);
+    }
+
+    /**
+     * A picture written one row at a time, from the top row down.
+     */
+    public interface RowSink {
+        /**
+         * Writes the next row of the picture. The array is reused for the
+         * next row once this returns.
+         *
+         * @param row the packed RGB color of each pixel of the row
+         */
+        void writeRow(int[] row);
+    }
 
     /**
      * Constructs a SeamCarver object based on the given Picture.
@@ -18,11 +132,136 @@ public class SeamCarver {
      * @throws IllegalArgumentException if the input picture is null
      */
     public SeamCarver(Picture picture) {
+        this(picture, false);
+    }
+
+    /**
+     * Constructs a SeamCarver object based on the given Picture, optionally
+     * finding seams in parallel.
+     *
+     * @param picture  the input picture
+     * @param parallel true to split each seam search across all cores
+     * @throws IllegalArgumentException if the input picture is null
+     */
+    public SeamCarver(Picture picture, boolean parallel) {
+        this(picture, parallel, null);
+    }
+
+    /**
+     * Constructs a SeamCarver object based on the given Picture that keeps
+     * its pixels, energies and path costs off the heap, in memory-mapped
+     * scratch files cut into bands of rows. At most three bands are held in
+     * the heap at a time, taking 12 bytes per pixel of a band for the colors
+     * and energies, and 8 per pixel of its kept rows of costs. The picture
+     * need not be kept once the SeamCarver is constructed. The SeamCarver
+     * must be closed once done with, which releases the scratch files.
+     *
+     * @param picture   the input picture
+     * @param directory the directory of the scratch files
+     * @param bandRows  the number of rows of a band
+     * @throws IllegalArgumentException if the input picture or the directory
+     *                                  is null, or if a band holds no row or
+     *                                  more than 2 GB
+     * @throws UncheckedIOException     if a scratch file cannot be created
+     */
+    public SeamCarver(Picture picture, String directory, int bandRows) {
+        this(picture, false, map(picture, directory, bandRows));
+    }
+
+    /**
+     * Constructs a SeamCarver object based on the given Picture, with its
+     * buffers in the heap or in the given bands.
+     *
+     * @param picture  the input picture
+     * @param parallel true to split each seam search across all cores
+     * @param bands    the bands holding the buffers; null for the heap
+     * @throws IllegalArgumentException if the input picture is null
+     */
+    private SeamCarver(Picture picture, boolean parallel, MappedBands bands) {
         if (picture == null) throw new IllegalArgumentException();
-        this.picture = new Picture(picture);
+        this.parallel = parallel;
+        this.bands = bands;
         width = picture.width();
         height = picture.height();
-        edgeTo = new int[width][height];
+        stride = width;
+        if (bands == null) {
+            rgb = new int[width * height];
+            energy = new double[width * height];
+        }
+        for (int y = 0; y < height; y++) {
+            int[] pixels = pixels(y, true);
+            int row = offset(y);
+            for (int x = 0; x < width; x++) {
+                pixels[row + x] = picture.getRGB(x, y);
+            }
+        }
+        computeEnergies();
+    }
+
+    /**
+     * Constructs a SeamCarver object that reads its picture row by row from
+     * the given source straight into memory-mapped scratch files cut into
+     * bands of rows, as {@link #SeamCarver(Picture, String, int)} does, so
+     * the picture is never held in the heap whole. The SeamCarver must be
+     * closed once done with, which releases the scratch files.
+     *
+     * @param source    the input picture, read from its top row down
+     * @param directory the directory of the scratch files
+     * @param bandRows  the number of rows of a band
+     * @throws IllegalArgumentException if the source or the directory is
+     *                                  null, if the picture is empty, or if a
+     *                                  band holds no row or more than 2 GB
+     * @throws UncheckedIOException     if a scratch file cannot be created
+     */
+    public SeamCarver(RowSource source, String directory, int bandRows) {
+        if (source == null) throw new IllegalArgumentException();
+        parallel = false;
+        width = source.width();
+        height = source.height();
+        if (width < 1 || height < 1) throw new IllegalArgumentException();
+        stride = width;
+        bands = new MappedBands(directory, height, width, bandRows, BAND);
+        try {
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                source.readRow(row);
+                System.arraycopy(row, 0, pixels(y, true), offset(y), width);
+            }
+            computeEnergies();
+        }
+        catch (RuntimeException e) {
+            bands.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Computes the energy of every pixel of a new picture.
+     */
+    private void computeEnergies() {
+        for (int y = 0; y < height; y++) {
+            double[] energies = energies(y, true);
+            int row = offset(y);
+            for (int x = 0; x < width; x++) {
+                energies[row + x] = computeEnergy(x, y);
+            }
+        }
+    }
+
+    /**
+     * Returns bands of a scratch file for the buffers of a picture.
+     *
+     * @param picture   the input picture
+     * @param directory the directory of the scratch file
+     * @param bandRows  the number of rows of a band
+     * @return the bands
+     * @throws IllegalArgumentException if the input picture or the directory
+     *                                  is null, or if a band holds no row or
+     *                                  more than 2 GB
+     */
+    private static MappedBands map(Picture picture, String directory, int bandRows) {
+        if (picture == null) throw new IllegalArgumentException();
+        return new MappedBands(directory, picture.height(), picture.width(), bandRows, BAND);
     }
 
     /**
@@ -31,7 +270,35 @@ public class SeamCarver {
      * @return a copy of the current picture
      */
     public Picture picture() {
-        return new Picture(picture);
+        Picture picture = new Picture(width, height);
+        for (int r = 0; r < rows(); r++) {
+            int[] pixels = pixels(r, false);
+            int row = offset(r);
+            for (int c = 0; c < columns(); c++) {
+                if (transposed) picture.setRGB(r, c, pixels[row + c]);
+                else picture.setRGB(c, r, pixels[row + c]);
+            }
+        }
+        return picture;
+    }
+
+    /**
+     * Writes the current picture row by row to the given sink. The buffers
+     * are first put back in the orientation of the picture, so the rows are
+     * read in order, band by band, and only one row is held in the heap for
+     * the sink.
+     *
+     * @param sink the output picture, written from its top row down
+     * @throws IllegalArgumentException if the sink is null
+     */
+    public void writeRows(RowSink sink) {
+        if (sink == null) throw new IllegalArgumentException();
+        orient(false);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(pixels(y, false), offset(y), row, 0, width);
+            sink.writeRow(row);
+        }
     }
 
     /**
@@ -52,6 +319,79 @@ public class SeamCarver {
         return height;
     }
 
+    /**
+     * Returns the number of columns of the buffers in their current orientation.
+     *
+     * @return the length of a seam's rows
+     */
+    private int columns() {
+        return transposed ? height : width;
+    }
+
+    /**
+     * Returns the number of rows of the buffers in their current orientation.
+     *
+     * @return the length of a seam
+     */
+    private int rows() {
+        return transposed ? width : height;
+    }
+
+    /**
+     * Returns the array holding the packed colors of a row of the buffers.
+     *
+     * @param y     the row of the buffers
+     * @param write true if the colors will be changed
+     * @return the array, in which the row starts at {@link #offset}
+     */
+    private int[] pixels(int y, boolean write) {
+        return bands == null ? rgb : bands.rgb(y, write);
+    }
+
+    /**
+     * Returns the array holding the energies of a row of the buffers.
+     *
+     * @param y     the row of the buffers
+     * @param write true if the energies will be changed
+     * @return the array, in which the row starts at {@link #offset}
+     */
+    private double[] energies(int y, boolean write) {
+        return bands == null ? energy : bands.energy(y, write);
+    }
+
+    /**
+     * Returns the index of column 0 of a row of the buffers in the arrays
+     * holding its colors and energies.
+     *
+     * @param y the row of the buffers
+     * @return the offset of the row
+     */
+    private int offset(int y) {
+        return bands == null ? y * stride : bands.offset(y);
+    }
+
+    /**
+     * Returns the array holding the path costs of a kept row.
+     *
+     * @param y     the kept row
+     * @param write true if the costs will be changed
+     * @return the array, in which the row starts at {@link #costOffset}
+     */
+    private double[] costs(int y, boolean write) {
+        return bands == null ? distTo : bands.costs(y, write);
+    }
+
+    /**
+     * Returns the index of column 0 of a kept row in the array holding its
+     * path costs.
+     *
+     * @param y the kept row
+     * @return the offset of the costs of the row
+     */
+    private int costOffset(int y) {
+        return bands == null ? keptRow(y) : bands.costOffset(y);
+    }
+
     /**
      * Calculates the energy of the pixel at column {@code x} and row {@code y}.
      * The energy is a measure of the importance of a pixel in the image, with
@@ -64,75 +404,121 @@ public class SeamCarver {
      */
     public double energy(int x, int y) {
         if (x < 0 || y < 0 || x >= width || y >= height) throw new IllegalArgumentException();
-        if (x == 0 || y == 0 || x == width - 1 || y == height - 1) return 1000;
-        Color colorXplus = picture.get(x + 1, y);
-        Color colorXminus = picture.get(x - 1, y);
-        Color colorYplus = picture.get(x, y + 1);
-        Color colorYminus = picture.get(x, y - 1);
-
-        int redX = colorXplus.getRed() - colorXminus.getRed();
-        int greenX = colorXplus.getGreen() - colorXminus.getGreen();
-        int blueX = colorXplus.getBlue() - colorXminus.getBlue();
-
-        int redY = colorYplus.getRed() - colorYminus.getRed();
-        int greenY = colorYplus.getGreen() - colorYminus.getGreen();
-        int blueY = colorYplus.getBlue() - colorYminus.getBlue();
-
-        double deltaX = redX * redX + greenX * greenX + blueX * blueX;
-        double deltaY = redY * redY + greenY * greenY + blueY * blueY;
+        int row = transposed ? x : y, col = transposed ? y : x;
+        return energies(row, false)[offset(row) + col];
+    }
+
+    /**
+     * Computes the energy of the pixel at column {@code col} and row
+     * {@code row} of the buffers. The energy of a pixel does not change when
+     * the picture is transposed, so this holds in either orientation.
+     *
+     * @param col the column of the pixel in the buffers
+     * @param row the row of the pixel in the buffers
+     * @return the energy of the pixel
+     */
+    private double computeEnergy(int col, int row) {
+        if (col == 0 || row == 0 || col == columns() - 1 || row == rows() - 1) return 1000;
+        int[] pixels = pixels(row, false);
+        int i = offset(row) + col;
+        double deltaX = gradient(pixels[i + 1], pixels[i - 1]);
+        double deltaY = gradient(pixels(row + 1, false)[offset(row + 1) + col],
+                                 pixels(row - 1, false)[offset(row - 1) + col]);
         return Math.sqrt(deltaX + deltaY);
     }
 
     /**
-     * Finds and returns the sequence of indices for the horizontal seam.
+     * Returns the squared difference between two packed colors, summed over
+     * their red, green and blue components.
      *
-     * @return an array of column indices that form the horizontal seam
+     * @param plus  the color on one side of a pixel
+     * @param minus the color on the other side
+     * @return the squared gradient between the two colors
      */
-    public int[] findHorizontalSeam() {
-        double[] prevDistanceTo = new double[height];
-        double[] distanceTo = new double[height];
+    private static int gradient(int plus, int minus) {
+        int red = ((plus >> 16) & 0xFF) - ((minus >> 16) & 0xFF);
+        int green = ((plus >> 8) & 0xFF) - ((minus >> 8) & 0xFF);
+        int blue = (plus & 0xFF) - (minus & 0xFF);
+        return red * red + green * green + blue * blue;
+    }
 
-        for (int y = 0; y < height; y++) {
-            prevDistanceTo[y] = energy(0, y);
+    /**
+     * Puts the buffers in the given orientation, transposing them if they are
+     * in the other one.
+     *
+     * @param transpose true for the transpose of the picture, false for the picture
+     */
+    private void orient(boolean transpose) {
+        if (transposed == transpose) return;
+        int cols = columns(), rows = rows();
+        if (bands != null) {
+            MappedBands old = bands;
+            bands = old.transpose(cols);
+            old.close();
         }
+        else {
+            rgb = transpose(rgb, cols, rows);
+            energy = transpose(energy, cols, rows);
+            distTo = null;
+        }
+        stride = rows;
+        transposed = transpose;
+    }
 
-        for (int x = 1; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                distanceTo[y] = Double.POSITIVE_INFINITY;
-                double currentEnergy = energy(x, y);
-                for (int dy = -1; dy <= 1; dy++) {
-                    int prevY = y + dy;
-                    if (prevY >= 0 && prevY < height) {
-                        double distance = prevDistanceTo[prevY] + currentEnergy;
-                        if (distanceTo[y] > distance) {
-                            distanceTo[y] = distance;
-                            edgeTo[x][y] = prevY;
-                        }
+    /**
+     * Returns the transpose of a buffer, copying it in square blocks so that
+     * both the reads and the writes stay within a few cache lines at a time.
+     *
+     * @param a    the buffer
+     * @param cols the number of columns of the buffer
+     * @param rows the number of rows of the buffer
+     * @return a buffer of {@code cols} rows of {@code rows} elements
+     */
+    private int[] transpose(int[] a, int cols, int rows) {
+        int[] t = new int[cols * rows];
+        for (int r0 = 0; r0 < rows; r0 += TILE) {
+            for (int c0 = 0; c0 < cols; c0 += TILE) {
+                for (int r = r0; r < Math.min(r0 + TILE, rows); r++) {
+                    for (int c = c0; c < Math.min(c0 + TILE, cols); c++) {
+                        t[c * rows + r] = a[r * stride + c];
                     }
                 }
             }
-            for (int y = 0; y < height; y++) {
-                prevDistanceTo[y] = distanceTo[y];
-            }
         }
+        return t;
+    }
 
-        double minPath = Double.POSITIVE_INFINITY;
-        int vertex = 0;
-        for (int y = 0; y < height; y++) {
-            double dist = distanceTo[y];
-            if (minPath > dist) {
-                minPath = dist;
-                vertex = y;
+    /**
+     * Returns the transpose of a buffer of energies, copying it in square
+     * blocks like the buffer of colors.
+     *
+     * @param a    the buffer
+     * @param cols the number of columns of the buffer
+     * @param rows the number of rows of the buffer
+     * @return a buffer of {@code cols} rows of {@code rows} elements
+     */
+    private double[] transpose(double[] a, int cols, int rows) {
+        double[] t = new double[cols * rows];
+        for (int r0 = 0; r0 < rows; r0 += TILE) {
+            for (int c0 = 0; c0 < cols; c0 += TILE) {
+                for (int r = r0; r < Math.min(r0 + TILE, rows); r++) {
+                    for (int c = c0; c < Math.min(c0 + TILE, cols); c++) {
+                        t[c * rows + r] = a[r * stride + c];
+                    }
+                }
             }
         }
+        return t;
+    }
 
-        int[] seamPath = new int[width];
-        for (int x = width - 1; x >= 0; x--) {
-            seamPath[x] = vertex;
-            vertex = edgeTo[x][vertex];
-        }
-
-        return seamPath;
+    /**
+     * Finds and returns the sequence of indices for the horizontal seam.
+     *
+     * @return an array of column indices that form the horizontal seam
+     */
+    public int[] findHorizontalSeam() {
+        orient(true);
+        return findSeam();
     }
 
     /**
@@ -141,52 +527,224 @@ public class SeamCarver {
      * @return an array of row indices that form the vertical seam
      */
     public int[] findVerticalSeam() {
-        double[] prevDistanceTo = new double[width];
-        double[] distanceTo = new double[width];
+        orient(false);
+        return findSeam();
+    }
+
+    /**
+     * Finds the cheapest seam down the rows of the buffers.
+     *
+     * @return the column of the seam in each row of the buffers
+     */
+    private int[] findSeam() {
+        relaxAll();
+        return traceSeam();
+    }
+
+    /**
+     * Returns true if the costs of a row of the buffers are kept.
+     *
+     * @param y the row
+     * @return true for every BAND-th row and the last row
+     */
+    private boolean kept(int y) {
+        return y % BAND == 0 || y == rows() - 1;
+    }
+
+    /**
+     * Returns the index in {@code distTo} of the costs of a kept row, when
+     * the buffers are in the heap.
+     *
+     * @param y the kept row
+     * @return the index of the costs of column 0 of the row
+     */
+    private int keptRow(int y) {
+        return (y + BAND - 1) / BAND * stride;
+    }
 
-        for (int x = 0; x < width; x++) {
-            prevDistanceTo[x] = energy(x, 0);
+    /**
+     * Computes the cost of the cheapest path from the first row of the
+     * buffers to every pixel, keeping the costs of every BAND-th row and of
+     * the last row.
+     */
+    private void relaxAll() {
+        int cols = columns(), rows = rows();
+        if (bands == null) {
+            int size = (keptRow(rows - 1) / stride + 1) * stride;
+            if (distTo == null || distTo.length < size) distTo = new double[size];
         }
+        System.arraycopy(energies(0, false), offset(0), costs(0, true), costOffset(0), cols);
 
-        for (int y = 1; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                distanceTo[x] = Double.POSITIVE_INFINITY;
-                double currentEnergy = energy(x, y);
-                for (int dx = -1; dx <= 1; dx++) {
-                    int prevX = x + dx;
-                    if (prevX >= 0 && prevX < width) {
-                        double distance = prevDistanceTo[prevX] + currentEnergy;
-                        if (distanceTo[x] > distance) {
-                            distanceTo[x] = distance;
-                            edgeTo[x][y] = prevX;
-                        }
-                    }
-                }
-            }
-            for (int x = 0; x < width; x++) {
-                prevDistanceTo[x] = distanceTo[x];
-            }
+        int strips = parallel ? Math.min(cols / STRIP, ForkJoinPool.getCommonPoolParallelism()) : 1;
+        if (strips < 2) strips = 1;
+        int length = Math.min((cols + strips - 1) / strips + 2 * BAND, cols);
+        if (scratch == null || scratch.length < 2 * strips) scratch = new double[2 * strips][];
+        for (int i = 0; i < 2 * strips; i++) {
+            if (scratch[i] == null || scratch[i].length < length) scratch[i] = new double[length];
         }
 
+        for (int y = 0; y < rows - 1; y += BAND) {
+            int n = Math.min(BAND, rows - 1 - y);
+            if (strips == 1) relaxStrip(y, n, 0, cols, scratch[0], scratch[1]);
+            else relaxBand(y, n, strips);
+        }
+    }
+
+    /**
+     * Traces the cheapest seam back from the costs of the dynamic program.
+     * Of equally cheap paths, each pixel takes the leftmost previous pixel,
+     * and the seam ends at the leftmost pixel.
+     * <p>
+     * No back-pointers are stored: the seam is traced back by looking, in
+     * each row, for the first pixel above whose cost plus the energy below
+     * gives the cost of the pixel. This finds the same pixel as keeping the
+     * first of the cheapest, since every cost is the exact minimum of those
+     * three sums. Between two kept rows, the costs of the cells the seam can
+     * come from, a triangle widening by one column per row up to the kept
+     * row above, are recomputed first.
+     *
+     * @return the column of the seam in each row of the buffers
+     */
+    private int[] traceSeam() {
+        int cols = columns(), rows = rows();
         double minPath = Double.POSITIVE_INFINITY;
         int vertex = 0;
-        for (int x = 0; x < width; x++) {
-            double dist = distanceTo[x];
+        double[] last = costs(rows - 1, false);
+        int lastOffset = costOffset(rows - 1);
+        for (int x = 0; x < cols; x++) {
+            double dist = last[lastOffset + x];
             if (minPath > dist) {
                 minPath = dist;
                 vertex = x;
             }
         }
 
-        int[] seamPath = new int[height];
-        for (int y = height - 1; y >= 0; y--) {
-            seamPath[y] = vertex;
-            vertex = edgeTo[vertex][y];
+        if (cone == null) cone = new double[(BAND - 1) * (2 * BAND + 1)];
+        int[] seamPath = new int[rows];
+        seamPath[rows - 1] = vertex;
+        for (int y = rows - 1; y > 0; ) {
+            int top = (y - 1) / BAND * BAND;    // The kept row above
+            int h = y - top;
+            int base = vertex - h, width = 2 * h + 1;
+
+            double[] from = costs(top, false);
+            int fromOffset = costOffset(top);
+            for (int r = top + 1; r < y; r++) {
+                int toOffset = (r - top - 1) * width - base;
+                relax(from, fromOffset, cone, toOffset, energies(r, false), offset(r),
+                      Math.max(vertex - (y - r), 0), Math.min(vertex + (y - r) + 1, cols));
+                from = cone;
+                fromOffset = toOffset;
+            }
+
+            double dist = costs(y, false)[costOffset(y) + vertex];
+            for (int r = y; r > top; r--) {
+                double[] prev = r - 1 == top ? costs(top, false) : cone;
+                int prevOffset = r - 1 == top ? costOffset(top) : (r - top - 2) * width - base;
+                double currentEnergy = energies(r, false)[offset(r) + vertex];
+                if (vertex > 0 && prev[prevOffset + vertex - 1] + currentEnergy == dist) vertex--;
+                else if (prev[prevOffset + vertex] + currentEnergy != dist) vertex++;
+                dist = prev[prevOffset + vertex];
+                seamPath[r - 1] = vertex;
+            }
+            y = top;
         }
 
         return seamPath;
     }
 
+    /**
+     * Computes the cost of the cheapest path to the pixels lo to hi - 1 of a
+     * row from the costs of the row above. Column x of the row above is at
+     * index x + fromOffset of its array, and column x of the row at index
+     * x + toOffset of its array.
+     * <p>
+     * The interior loop is a branch-free minimum of three, and the two border
+     * columns, which have only two pixels above, are peeled off.
+     *
+     * @param from       the costs of the row above
+     * @param fromOffset the offset of column 0 in the costs of the row above
+     * @param to         the costs of the row
+     * @param toOffset   the offset of column 0 in the costs of the row
+     * @param energies   the array holding the energies of the row
+     * @param row        the offset of column 0 in the energies of the row
+     * @param lo         the first column to compute
+     * @param hi         the column after the last one to compute
+     */
+    private void relax(double[] from, int fromOffset, double[] to, int toOffset,
+                       double[] energies, int row, int lo, int hi) {
+        int cols = columns();
+        int x = lo;
+        if (x == 0) {
+            double currentEnergy = energies[row];
+            double up = from[fromOffset] + currentEnergy;
+            to[toOffset] = cols == 1 ? up : Math.min(up, from[fromOffset + 1] + currentEnergy);
+            x++;
+        }
+        for (int end = Math.min(hi, cols - 1); x < end; x++) {
+            double currentEnergy = energies[row + x];
+            double left = from[fromOffset + x - 1] + currentEnergy;
+            double up = from[fromOffset + x] + currentEnergy;
+            double right = from[fromOffset + x + 1] + currentEnergy;
+            to[toOffset + x] = Math.min(Math.min(left, up), right);
+        }
+        if (x < hi) {
+            double currentEnergy = energies[row + x];
+            double left = from[fromOffset + x - 1] + currentEnergy;
+            double up = from[fromOffset + x] + currentEnergy;
+            to[toOffset + x] = Math.min(left, up);
+        }
+    }
+
+    /**
+     * Computes a band of rows of the dynamic program in column strips on the
+     * common fork-join pool.
+     *
+     * @param y      the row above the band, which is kept
+     * @param n      the number of rows of the band
+     * @param strips the number of strips
+     */
+    private void relaxBand(int y, int n, int strips) {
+        int cols = columns();
+        IntStream.range(0, strips).parallel().forEach(
+                s -> relaxStrip(y, n, s * cols / strips, (s + 1) * cols / strips,
+                                scratch[2 * s], scratch[2 * s + 1]));
+    }
+
+    /**
+     * Computes the columns lo to hi - 1 of a band of rows, storing those of
+     * the kept rows. The first row of the band also covers the n - 1 columns
+     * on either side that the strip's last row depends on, and each row covers
+     * one column less on either side than the row above. These margins are
+     * computed in rows of the strip's own, so the strip reads nothing its
+     * neighbors write.
+     *
+     * @param y    the row above the band, which is kept
+     * @param n    the number of rows of the band
+     * @param lo   the first column of the strip
+     * @param hi   the column after the last one of the strip
+     * @param from a row of costs for the strip to use
+     * @param to   another row of costs for the strip to use
+     */
+    private void relaxStrip(int y, int n, int lo, int hi, double[] from, double[] to) {
+        int cols = columns();
+        int base = Math.max(lo - n, 0);
+        int length = Math.min(hi + n, cols) - base;
+        System.arraycopy(costs(y, false), costOffset(y) + base, from, 0, length);
+        for (int k = 1; k <= n; k++) {
+            int margin = n - k;
+            int first = Math.max(lo - margin, 0), end = Math.min(hi + margin, cols);
+            relax(from, -base, to, -base, energies(y + k, false), offset(y + k), first, end);
+            if (kept(y + k)) {
+                System.arraycopy(to, lo - base, costs(y + k, true), costOffset(y + k) + lo,
+                                 hi - lo);
+            }
+            double[] swap = from;
+            from = to;
+            to = swap;
+        }
+    }
+
     /**
      * Removes the horizontal seam from the current picture.
      *
@@ -196,24 +754,11 @@ public class SeamCarver {
     public void removeHorizontalSeam(int[] seam) {
         if (seam == null || seam.length != width || height <= 1)
             throw new IllegalArgumentException();
-
-        int prevSeam = seam[0];
-        for (int i = 1; i < width; i++) {
-            if (Math.abs(seam[i] - prevSeam) > 1) throw new IllegalArgumentException();
-            prevSeam = seam[i];
-        }
-
-        Picture newPicture = new Picture(width, height - 1);
-        for (int x = 0; x < width; x++) {
-            int newY = 0;
-            for (int y = 0; y < height; y++) {
-                if (y != seam[x]) {
-                    newPicture.set(x, newY++, picture.get(x, y));
-                }
-            }
-        }
-        picture = newPicture;
+        validate(seam, height);
+        orient(true);
+        removeSeam(seam, false);
         height--;
+        updateEnergy(seam);
     }
 
     /**
@@ -225,24 +770,383 @@ public class SeamCarver {
     public void removeVerticalSeam(int[] seam) {
         if (seam == null || seam.length != height || width <= 1)
             throw new IllegalArgumentException();
+        validate(seam, width);
+        orient(false);
+        removeSeam(seam, false);
+        width--;
+        updateEnergy(seam);
+    }
+
+    /**
+     * Removes k horizontal seams from the current picture, with the same
+     * result as calling {@link #findHorizontalSeam} and
+     * {@link #removeHorizontalSeam} k times.
+     *
+     * @param k the number of seams to remove
+     * @throws IllegalArgumentException if {@code k} is negative or not less
+     *                                  than the height
+     */
+    public void removeHorizontalSeams(int k) {
+        if (k < 0 || k >= height) throw new IllegalArgumentException();
+        orient(true);
+        removeSeams(k, false, null);
+    }
 
-        int prevSeam = seam[0];
-        for (int i = 1; i < height; i++) {
-            if (Math.abs(seam[i] - prevSeam) > 1) throw new IllegalArgumentException();
-            prevSeam = seam[i];
+    /**
+     * Removes k vertical seams from the current picture, with the same
+     * result as calling {@link #findVerticalSeam} and
+     * {@link #removeVerticalSeam} k times.
+     *
+     * @param k the number of seams to remove
+     * @throws IllegalArgumentException if {@code k} is negative or not less
+     *                                  than the width
+     */
+    public void removeVerticalSeams(int k) {
+        if (k < 0 || k >= width) throw new IllegalArgumentException();
+        orient(false);
+        removeSeams(k, false, null);
+    }
+
+    /**
+     * Removes k vertical seams from the current picture, like
+     * {@link #removeVerticalSeams}, and returns them.
+     *
+     * @param k the number of seams to remove
+     * @return the removed seams, in the order they were removed, each as the
+     *         column of the seam in each row when it was removed
+     * @throws IllegalArgumentException if {@code k} is negative or not less
+     *                                  than the width
+     */
+    int[][] carveVerticalSeams(int k) {
+        if (k < 0 || k >= width) throw new IllegalArgumentException();
+        orient(false);
+        return removeSeams(k, true, null);
+    }
+
+    /**
+     * Widens the current picture by k vertical seams: the k seams that
+     * {@link #removeVerticalSeams} would remove are found, and each pixel of
+     * them is duplicated.
+     *
+     * @param k the number of seams to insert
+     * @throws IllegalArgumentException if {@code k} is negative or not less
+     *                                  than the width
+     */
+    public void insertVerticalSeams(int k) {
+        if (k < 0 || k >= width) throw new IllegalArgumentException();
+        orient(false);
+        insertSeams(k);
+    }
+
+    /**
+     * Heightens the current picture by k horizontal seams: the k seams that
+     * {@link #removeHorizontalSeams} would remove are found, and each pixel of
+     * them is duplicated.
+     *
+     * @param k the number of seams to insert
+     * @throws IllegalArgumentException if {@code k} is negative or not less
+     *                                  than the height
+     */
+    public void insertHorizontalSeams(int k) {
+        if (k < 0 || k >= height) throw new IllegalArgumentException();
+        orient(true);
+        insertSeams(k);
+    }
+
+    /**
+     * Removes k seams down the rows of the buffers, one at a time, computing
+     * the costs of the dynamic program in full only for the first one. Unless
+     * the seams are kept, only the seam being removed is held in the heap.
+     *
+     * @param k      the number of seams to remove
+     * @param keep   true to return the removed seams
+     * @param colors if not null, receives the colors of the pixels each seam
+     *               removes, row by row
+     * @return the removed seams, in the order they were removed; null if they
+     *         are not kept
+     */
+    private int[][] removeSeams(int k, boolean keep, int[][] colors) {
+        int[][] seams = keep ? new int[k][] : null;
+        if (k == 0) return seams;
+        relaxAll();
+        for (int i = 0; i < k; i++) {
+            int[] seam = traceSeam();
+            if (keep) seams[i] = seam;
+            if (colors != null) {
+                colors[i] = new int[seam.length];
+                for (int y = 0; y < seam.length; y++) {
+                    colors[i][y] = pixels(y, false)[offset(y) + seam[y]];
+                }
+            }
+            removeSeam(seam, true);
+            if (transposed) height--;
+            else width--;
+            updateEnergy(seam);
+            if (i < k - 1) updateDistTo(seam);
         }
+        return seams;
+    }
 
-        Picture newPicture = new Picture(width - 1, height);
-        for (int y = 0; y < height; y++) {
-            int newX = 0;
-            for (int x = 0; x < width; x++) {
-                if (x != seam[y]) {
-                    newPicture.set(newX++, y, picture.get(x, y));
+    /**
+     * Inserts k seams down the rows of the buffers. The k seams are removed in
+     * one batch, keeping the colors of their pixels, and then every row is
+     * rebuilt at its new length in one pass, with each pixel of the seams back
+     * in its place and a copy of it next to it. The energies are recomputed
+     * once the rows are rebuilt.
+     * <p>
+     * Each seam is found among the pixels the seams before it left, so the
+     * column it gives in a row is a rank among those pixels. A Fenwick tree of
+     * the pixels not yet removed from the row turns each rank back into an
+     * original column in logarithmic time.
+     *
+     * @param k the number of seams to insert
+     */
+    private void insertSeams(int k) {
+        if (k == 0) return;
+        int cols = columns(), rows = rows();
+        int[][] colors = new int[k][];
+        int[][] seams = removeSeams(k, true, colors);
+
+        MappedBands carvedBands = bands;
+        int[] carved = rgb;
+        int carvedStride = stride;
+        int length = cols + k;
+        if (bands != null) {
+            bands = bands.resized(length);
+        }
+        else {
+            rgb = new int[rows * length];
+            energy = new double[rows * length];
+        }
+        stride = length;
+        if (transposed) height = length;
+        else width = length;
+
+        int[] tree = new int[cols + 1];     // Pixels of the row not yet removed
+        boolean[] inSeam = new boolean[cols];
+        int[] seamColor = new int[cols];
+        for (int y = 0; y < rows; y++) {
+            for (int i = 1; i <= cols; i++) tree[i] = i & -i;
+            Arrays.fill(inSeam, false);
+            for (int s = 0; s < k; s++) {
+                int col = select(tree, seams[s][y]);
+                inSeam[col] = true;
+                seamColor[col] = colors[s][y];
+                for (int i = col + 1; i <= cols; i += i & -i) tree[i]--;
+            }
+
+            int[] from = carvedBands == null ? carved : carvedBands.rgb(y, false);
+            int[] to = pixels(y, true);
+            int f = carvedBands == null ? y * carvedStride : carvedBands.offset(y), t = offset(y);
+            for (int x = 0; x < cols; x++) {
+                if (inSeam[x]) {
+                    to[t++] = seamColor[x];
+                    to[t++] = seamColor[x];
+                }
+                else {
+                    to[t++] = from[f++];
                 }
             }
         }
-        picture = newPicture;
-        width--;
+        if (carvedBands != null) carvedBands.close();
+
+        for (int y = 0; y < rows; y++) {
+            double[] energies = energies(y, true);
+            int row = offset(y);
+            for (int x = 0; x < length; x++) {
+                energies[row + x] = computeEnergy(x, y);
+            }
+        }
+    }
+
+    /**
+     * Returns the column of the pixel of the given rank among the pixels of a
+     * row not yet removed, descending a Fenwick tree that holds 1 for each of
+     * them.
+     *
+     * @param tree the Fenwick tree, indexed from 1
+     * @param rank the rank of the pixel, from 0
+     * @return the column of the pixel
+     */
+    private static int select(int[] tree, int rank) {
+        int col = 0;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+            if (col + step < tree.length && tree[col + step] <= rank) {
+                col += step;
+                rank -= tree[col];
+            }
+        }
+        return col;
+    }
+
+    /**
+     * Checks that every index of a seam is in range and that consecutive
+     * indices differ by at most one.
+     *
+     * @param seam  the seam
+     * @param range the number of pixels across the seam
+     * @throws IllegalArgumentException if the seam is invalid
+     */
+    private static void validate(int[] seam, int range) {
+        for (int i = 0; i < seam.length; i++) {
+            if (seam[i] < 0 || seam[i] >= range) throw new IllegalArgumentException();
+            if (i > 0 && Math.abs(seam[i] - seam[i - 1]) > 1) throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Shifts the pixels after a seam one column to the left in each row of
+     * the buffers.
+     *
+     * @param seam  the column of the seam in each row of the buffers
+     * @param costs true to shift the costs of the kept rows as well
+     */
+    private void removeSeam(int[] seam, boolean costs) {
+        int cols = columns();
+        for (int y = 0; y < seam.length; y++) {
+            int from = offset(y) + seam[y] + 1, length = cols - seam[y] - 1;
+            int[] pixels = pixels(y, true);
+            System.arraycopy(pixels, from, pixels, from - 1, length);
+            double[] energies = energies(y, true);
+            System.arraycopy(energies, from, energies, from - 1, length);
+            if (costs && kept(y)) {
+                double[] row = costs(y, true);
+                from = costOffset(y) + seam[y] + 1;
+                System.arraycopy(row, from, row, from - 1, length);
+            }
+        }
+    }
+
+    /**
+     * Returns the leftmost column of a seam in a row and the rows next to it.
+     *
+     * @param seam the column of the seam in each row
+     * @param y    the row
+     * @return the leftmost column of the seam in rows y - 1 to y + 1
+     */
+    private static int leftmost(int[] seam, int y) {
+        int lo = seam[y];
+        if (y > 0) lo = Math.min(lo, seam[y - 1]);
+        if (y < seam.length - 1) lo = Math.min(lo, seam[y + 1]);
+        return lo;
+    }
+
+    /**
+     * Returns the rightmost column of a seam in a row and the rows next to it.
+     *
+     * @param seam the column of the seam in each row
+     * @param y    the row
+     * @return the rightmost column of the seam in rows y - 1 to y + 1
+     */
+    private static int rightmost(int[] seam, int y) {
+        int hi = seam[y];
+        if (y > 0) hi = Math.max(hi, seam[y - 1]);
+        if (y < seam.length - 1) hi = Math.max(hi, seam[y + 1]);
+        return hi;
+    }
+
+    /**
+     * Recomputes the energy of the pixels whose neighbors changed when a seam
+     * was removed from the buffers. In each row, these are the pixels on
+     * either side of the seam and, where the seam moves sideways, the pixels
+     * that now sit under or over different pixels.
+     *
+     * @param seam the column of the removed seam in each row of the buffers
+     */
+    private void updateEnergy(int[] seam) {
+        int cols = columns();
+        for (int y = 0; y < seam.length; y++) {
+            int lo = Math.max(leftmost(seam, y) - 1, 0);
+            int hi = Math.min(rightmost(seam, y), cols - 1);
+            double[] energies = energies(y, true);
+            int row = offset(y);
+            for (int x = lo; x <= hi; x++) {
+                energies[row + x] = computeEnergy(x, y);
+            }
+        }
+    }
+
+    /**
+     * Recomputes the costs of the kept rows that can have changed when a seam
+     * was removed from the buffers, whose kept costs were shifted with the
+     * pixels. A cell can only change if its energy changed, if the seam moved
+     * its pixels above, or if the cost of one of its pixels above changed.
+     * Such a change spreads at most one column further on either side with
+     * every row, so in each band of rows only the columns of the kept row
+     * below that a change around the seam or in the kept row above can reach
+     * are recomputed, from the kept row above as {@link #relaxStrip} does.
+     * Comparing them with their old costs then tells which columns of the
+     * kept row changed, for the next band.
+     *
+     * @param seam the column of the removed seam in each row of the buffers
+     */
+    private void updateDistTo(int[] seam) {
+        int cols = columns(), rows = rows();
+        int changedLo = cols, changedHi = -1;   // Columns whose cost changed in the kept row
+        double[] energies = energies(0, false);
+        double[] first = costs(0, true);
+        int e = offset(0), c = costOffset(0);
+        int end = Math.min(rightmost(seam, 0), cols - 1);
+        for (int x = Math.max(leftmost(seam, 0) - 1, 0); x <= end; x++) {
+            double dist = energies[e + x];
+            if (dist != first[c + x]) {
+                first[c + x] = dist;
+                changedLo = Math.min(changedLo, x);
+                changedHi = x;
+            }
+        }
+        if (scratch[0].length < cols) scratch[0] = new double[cols];
+        if (scratch[1].length < cols) scratch[1] = new double[cols];
+
+        for (int y = 0; y < rows - 1; y += BAND) {
+            int n = Math.min(BAND, rows - 1 - y);
+            int lo = changedHi == -1 ? cols : changedLo - n;
+            int hi = changedHi == -1 ? -1 : changedHi + n;
+            for (int r = y + 1; r <= y + n; r++) {
+                lo = Math.min(lo, leftmost(seam, r) - 1 - (y + n - r));
+                hi = Math.max(hi, rightmost(seam, r) + (y + n - r));
+            }
+            lo = Math.max(lo, 0);
+            hi = Math.min(hi, cols - 1);
+
+            // Compute the band over the columns the kept row below needs
+            double[] from = scratch[0], to = scratch[1];
+            int base = Math.max(lo - n, 0);
+            System.arraycopy(costs(y, false), costOffset(y) + base, from, 0,
+                             Math.min(hi + 1 + n, cols) - base);
+            for (int k = 1; k <= n; k++) {
+                int margin = n - k;
+                relax(from, -base, to, -base, energies(y + k, false), offset(y + k),
+                      Math.max(lo - margin, 0), Math.min(hi + 1 + margin, cols));
+                double[] swap = from;
+                from = to;
+                to = swap;
+            }
+
+            double[] below = costs(y + n, true);
+            int row = costOffset(y + n);
+            changedLo = cols;
+            changedHi = -1;
+            for (int x = lo; x <= hi; x++) {
+                if (from[x - base] != below[row + x]) {
+                    below[row + x] = from[x - base];
+                    changedLo = Math.min(changedLo, x);
+                    changedHi = x;
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the scratch files of a SeamCarver that keeps its buffers off the
+     * heap, which releases them. Does nothing for a SeamCarver in the heap. A
+     * closed SeamCarver must not be used.
+     *
+     * @throws UncheckedIOException if a scratch file cannot be closed
+     */
+    @Override
+    public void close() {
+        if (bands != null) bands.close();
     }
 
     /**
@@ -260,4 +1164,4 @@ public class SeamCarver {
         }
         sc.picture().show();
     }
-}
\ No newline at end of file
+}
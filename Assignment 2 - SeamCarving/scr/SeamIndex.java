@@ -0,0 +1,123 @@
+import edu.princeton.cs.algs4.Picture;
+
+import java.util.Arrays;
+
+/**
+ * The SeamIndex class resizes a picture to any width between a minimum width
+ * and its own, with the same result as removing vertical seams one at a time
+ * with a {@link SeamCarver}, but without a dynamic program per size.
+ * <p>
+ * The picture is carved once, down to the minimum width, and the index records
+ * for every pixel the seam that removed it. Each seam removes one pixel per
+ * row, and the first seams found for a smaller width are the seams found for
+ * a larger one, so the picture narrowed by k seams holds exactly the pixels
+ * not removed by the first k seams, in their original order. A width is then
+ * produced by one pass over the pixels, keeping those removed late enough.
+ */
+public class SeamIndex {
+    private final int width, height, minWidth;
+    private final int[] rgb;     // Packed color of each pixel of the picture, row by row
+    private final int[] order;   // Seam that removed each pixel; width - minWidth if none did
+
+    /**
+     * Carves a picture down to the given width and indexes the seams.
+     *
+     * @param picture  the picture
+     * @param minWidth the smallest width to resize to
+     * @throws IllegalArgumentException if the picture is null, or if the
+     *                                  minimum width is not between 1 and the
+     *                                  width of the picture
+     */
+    public SeamIndex(Picture picture, int minWidth) {
+        if (picture == null) throw new IllegalArgumentException();
+        if (minWidth < 1 || minWidth > picture.width()) throw new IllegalArgumentException();
+        width = picture.width();
+        height = picture.height();
+        this.minWidth = minWidth;
+        rgb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                rgb[y * width + x] = picture.getRGB(x, y);
+            }
+        }
+
+        // Replay the seams on the original column of each remaining pixel
+        int[][] seams = new SeamCarver(picture).carveVerticalSeams(width - minWidth);
+        order = new int[width * height];
+        Arrays.fill(order, seams.length);
+        int[] columns = new int[width * height];
+        for (int i = 0; i < columns.length; i++) columns[i] = i % width;
+        for (int s = 0; s < seams.length; s++) {
+            int remaining = width - s;
+            for (int y = 0; y < height; y++) {
+                int i = y * width + seams[s][y];
+                order[y * width + columns[i]] = s;
+                System.arraycopy(columns, i + 1, columns, i, remaining - seams[s][y] - 1);
+            }
+            seams[s] = null;
+        }
+    }
+
+    /**
+     * Returns the width of the picture.
+     *
+     * @return the width of the picture
+     */
+    public int width() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the picture.
+     *
+     * @return the height of the picture
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Returns the smallest width the picture can be resized to.
+     *
+     * @return the minimum width
+     */
+    public int minWidth() {
+        return minWidth;
+    }
+
+    /**
+     * Returns the picture resized to the given width, the same picture as
+     * removing {@code width() - target} vertical seams with a
+     * {@link SeamCarver}.
+     *
+     * @param target the width of the resized picture
+     * @return the resized picture
+     * @throws IllegalArgumentException if the target width is not between
+     *                                  the minimum width and the width
+     */
+    public Picture picture(int target) {
+        if (target < minWidth || target > width) throw new IllegalArgumentException();
+        int removed = width - target;
+        Picture picture = new Picture(target, height);
+        for (int y = 0; y < height; y++) {
+            int x = 0;
+            for (int i = y * width, end = i + width; i < end; i++) {
+                if (order[i] >= removed) picture.setRGB(x++, y, rgb[i]);
+            }
+        }
+        return picture;
+    }
+
+    /**
+     * Unit testing of this class.
+     *
+     * @param args command-line arguments
+     */
+    public static void main(String[] args) {
+        Picture picture = new Picture("HJocean.png");
+        SeamIndex index = new SeamIndex(picture, picture.width() / 2);
+        for (int target = index.width(); target >= index.minWidth(); target -= 50) {
+            index.picture(target).show();
+        }
+    }
+}